@@ -0,0 +1,112 @@
+package name.osher.gil.minivmac;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Cost of the disk transfers behind Core.sonyTransfer, for the disk
+ * backends that run in Java. Transfers walk the image sequentially,
+ * the way the Mac reads a file or boots.
+ */
+@RunWith(Parameterized.class)
+public class DiskImageBenchmark {
+    private static final int IMAGE_SIZE = 8 * 1024 * 1024;
+
+    @Parameterized.Parameters(name = "{0} bytes")
+    public static Collection<Object[]> sizes() {
+        // one sector, one cache block, a large multi-sector read
+        return Arrays.asList(new Object[][] {{512}, {4096}, {65536}});
+    }
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final int mLength;
+    private File mImage;
+    private File mOverlay;
+    private ByteBuffer mBuffer;
+
+    public DiskImageBenchmark(int length) {
+        mLength = length;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        mImage = new File(context.getCacheDir(), "benchmark.dsk");
+        mOverlay = new File(context.getCacheDir(), "benchmark.ovl");
+        try (RandomAccessFile f = new RandomAccessFile(mImage, "rw")) {
+            f.setLength(IMAGE_SIZE);
+        }
+        mBuffer = ByteBuffer.allocateDirect(mLength);
+    }
+
+    @After
+    public void tearDown() {
+        mOverlay.delete();
+        mImage.delete();
+    }
+
+    private void run(IDiskImage disk, boolean isWrite) throws IOException {
+        BenchmarkState state = mBenchmarkRule.getState();
+        long start = 0;
+        try {
+            while (state.keepRunning()) {
+                disk.transfer(isWrite, mBuffer, start, mLength);
+                start = (start + mLength) % IMAGE_SIZE;
+            }
+        } finally {
+            disk.close();
+        }
+    }
+
+    @Test
+    public void diskCacheRead() throws IOException {
+        run(new DiskCache(mImage, false, 1024), false);
+    }
+
+    @Test
+    public void diskCacheWrite() throws IOException {
+        run(new DiskCache(mImage, false, 1024), true);
+    }
+
+    @Test
+    public void overlayDiskRead() throws IOException {
+        OverlayDisk.create(mOverlay, mImage);
+        run(new OverlayDisk(mOverlay, false), false);
+    }
+
+    @Test
+    public void overlayDiskWrite() throws IOException {
+        // the first pass over the image appends blocks, the rest rewrite them in place
+        OverlayDisk.create(mOverlay, mImage);
+        run(new OverlayDisk(mOverlay, false), true);
+    }
+
+    @Test
+    public void mappedDiskRead() throws IOException {
+        run(new MappedDisk(mImage, false), false);
+    }
+
+    @Test
+    public void mappedDiskWrite() throws IOException {
+        run(new MappedDisk(mImage, false), true);
+    }
+}
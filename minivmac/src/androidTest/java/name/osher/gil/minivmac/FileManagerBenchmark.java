@@ -0,0 +1,88 @@
+package name.osher.gil.minivmac;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Cost of importing a disk image and of creating a new blank disk.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileManagerBenchmark {
+    private static final int COPY_SIZE = 1024 * 1024;
+    private static final int FLOPPY_SIZE = 1440 * 1024;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private FileManager mFileManager;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mFileManager = FileManager.getInstance();
+        mFileManager.init(context);
+        mFile = mFileManager.getCacheFile("benchmark.dsk");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void copy() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[COPY_SIZE]);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            in.reset();
+            mFileManager.copy(in, mFile);
+        }
+    }
+
+    @Test
+    public void copyFile() throws IOException {
+        // content backed by a file descriptor, as most document providers give it
+        File src = mFileManager.getCacheFile("benchmark-src.dsk");
+        try (RandomAccessFile f = new RandomAccessFile(src, "rw")) {
+            f.setLength(COPY_SIZE);
+        }
+        try {
+            BenchmarkState state = mBenchmarkRule.getState();
+            while (state.keepRunning()) {
+                try (FileInputStream in = new FileInputStream(src)) {
+                    mFileManager.copy(in, mFile);
+                }
+            }
+        } finally {
+            src.delete();
+        }
+    }
+
+    @Test
+    public void makeNewDisk() {
+        String path = mFile.getParent();
+        String name = mFile.getName();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            // an existing disk in the cache directory is replaced
+            mFileManager.makeNewDisk(FLOPPY_SIZE, name, path, null);
+        }
+    }
+}
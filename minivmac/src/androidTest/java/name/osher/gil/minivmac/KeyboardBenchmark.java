@@ -0,0 +1,73 @@
+package name.osher.gil.minivmac;
+
+import android.content.Context;
+import android.inputmethodservice.Keyboard;
+import android.view.KeyEvent;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Cost of mapping hardware and on-screen keys to Mac key codes,
+ * done for every key press.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeyboardBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    // keeps the results alive so the work isn't optimized away
+    private volatile int mSink;
+
+    private EmulatorFragment mFragment;
+    private Keyboard mKeyboard;
+    private int[] mCodes;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> mFragment = new EmulatorFragment());
+        mKeyboard = new Keyboard(context, R.xml.us_qwerty);
+
+        List<Keyboard.Key> keys = mKeyboard.getKeys();
+        mCodes = new int[keys.size()];
+        for (int i = 0; i < mCodes.length; i++) {
+            Keyboard.Key key = keys.get(i);
+            mCodes[i] = key.codes.length > 0 ? key.codes[0] : 0;
+        }
+    }
+
+    @Test
+    public void translateKeyCode() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int sum = 0;
+        while (state.keepRunning()) {
+            for (int keyCode = 0; keyCode <= KeyEvent.KEYCODE_MENU; keyCode++) {
+                sum += mFragment.translateKeyCode(keyCode);
+            }
+        }
+        mSink = sum;
+    }
+
+    @Test
+    public void findKey() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int found = 0;
+        while (state.keepRunning()) {
+            for (int code : mCodes) {
+                if (EmulatorFragment.findKey(mKeyboard, code) != null) found++;
+            }
+        }
+        mSink = found;
+    }
+}
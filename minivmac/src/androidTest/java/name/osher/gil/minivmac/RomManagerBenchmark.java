@@ -0,0 +1,32 @@
+package name.osher.gil.minivmac;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Cost of validating a ROM image when it is selected.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RomManagerBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void calculateChecksum() throws IOException {
+        RomManager romManager = new RomManager();
+        ByteArrayInputStream rom = new ByteArrayInputStream(new byte[RomManager.getRomSize()]);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            rom.reset();
+            romManager.calculateChecksum(rom, null);
+        }
+    }
+}
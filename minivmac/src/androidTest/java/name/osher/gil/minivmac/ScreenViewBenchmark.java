@@ -0,0 +1,75 @@
+package name.osher.gil.minivmac;
+
+import android.content.Context;
+import android.view.View;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Per frame cost of pushing emulator screen updates into the view.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScreenViewBenchmark {
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 342;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    // keeps the results alive so the work isn't optimized away
+    private volatile int mSink;
+
+    private ScreenView mScreenView;
+    private int[] mScreen;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mScreenView = new ScreenView(context);
+        mScreenView.setTargetScreenSize(WIDTH, HEIGHT);
+        mScreenView.measure(View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY));
+        mScreenView.setScaled(true);
+
+        mScreen = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < mScreen.length; i++) {
+            mScreen[i] = (i & 1) == 0 ? 0xFF000000 : 0xFFFFFFFF;
+        }
+    }
+
+    @Test
+    public void updateScreenFull() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mScreenView.updateScreen(mScreen, 0, 0, HEIGHT, WIDTH);
+        }
+    }
+
+    @Test
+    public void updateScreenMenuBar() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mScreenView.updateScreen(mScreen, 0, 0, 20, WIDTH);
+        }
+    }
+
+    @Test
+    public void translateScreenXCoord() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int sum = 0;
+        while (state.keepRunning()) {
+            for (int x = 0; x < WIDTH; x++) {
+                sum += mScreenView.translateScreenXCoord(x);
+            }
+        }
+        mSink = sum;
+    }
+}
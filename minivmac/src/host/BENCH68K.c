@@ -0,0 +1,589 @@
+/*
+	BENCH68K.c
+
+	You can redistribute this file and/or modify it under the terms
+	of version 2 of the GNU General Public License as published by
+	the Free Software Foundation.  You should have received a copy
+	of the license along with this file; see the file COPYING.
+
+	This file is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	license for more details.
+*/
+
+/*
+	BENCHmark of the 68K emulator
+
+	Runs small synthetic 68K programs on the emulated cpu alone,
+	with plain RAM and a small read only region standing in for
+	ROM as the whole address space and no other devices, and
+	reports how long an emulated instruction takes. A first,
+	single stepped, pass over each program counts how its
+	instructions split up by main class (the kIKind values of
+	M68KITAB.h), so changes to a particular part of the interpreter
+	can be matched to the programs that exercise it.
+
+	MINEM68K.c is compiled into this file, so the interpreter
+	state can be looked at directly.
+*/
+
+#include "SYSDEPNS.h"
+
+/* no glue to read a profile, and IKindName is defined below */
+#define WantGuestProfile 0
+
+#include "MYOSGLUE.h"
+#include "ENDIANAC.h"
+#include "EMCONFIG.h"
+#include "GLOBGLUE.h"
+
+#include "M68KITAB.h"
+
+#define AllFiles 1
+#include "MINEM68K.c"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+GLOBALVAR ui5r InstructionsExecuted = 0;
+
+LOCALVAR const char *IKindName[kNumIKinds] = {
+#include "IKINDNAM.h"
+};
+
+#define kBenchRAM_ln2Size 20
+#define kBenchRAM_Size (1UL << kBenchRAM_ln2Size)
+
+#define kBenchROM_ln2Size 16
+#define kBenchROM_Size (1UL << kBenchROM_ln2Size)
+#define kBenchROM_Base 0x00400000
+
+#define kStackTop 0x000FFF00
+#define kTrapAddr 0x00000800
+#define kCodeAddr 0x00001000
+
+#define kProfileInstrs 100000
+#define kChunkCycles (1UL << 24)
+#define kNumTrials 5
+
+LOCALVAR ui3b BenchRAM[kBenchRAM_Size] my_align_8;
+LOCALVAR ui3b BenchROM[kBenchROM_Size] my_align_8;
+LOCALVAR ATTer BenchATT[3];
+LOCALVAR ui3b BenchIPL = 0;
+
+/*
+	RAM is pointed at BenchRAM, so writes mark their pages in
+	RAMDirty as they do for the real RAM.
+*/
+GLOBALVAR ui3p RAM = nullpr;
+GLOBALVAR ui3p ROM = nullpr;
+GLOBALVAR ui3b RAMDirty[kRAMDirtyNumPages + kRAMDirtyNumSpare];
+
+#if EnableIdleSleep
+GLOBALVAR ui5r GuestPollCount = 0;
+#endif
+
+/* stubs for the rest of the machine, never reached from plain RAM */
+
+GLOBALFUNC ui5b MMDV_Access(ATTep p, ui5b Data,
+	blnr WriteMem, blnr ByteSize, CPTR addr)
+{
+	UnusedParam(p);
+	UnusedParam(WriteMem);
+	UnusedParam(ByteSize);
+	UnusedParam(addr);
+
+	return Data;
+}
+
+GLOBALFUNC blnr MemAccessNtfy(ATTep pT)
+{
+	UnusedParam(pT);
+
+	return falseblnr;
+}
+
+GLOBALPROC customreset(void)
+{
+}
+
+GLOBALVAR blnr StateLoading = falseblnr;
+
+GLOBALPROC State_Bytes(anyp p, ui5r n)
+{
+	UnusedParam(p);
+	UnusedParam(n);
+}
+
+#if 0
+#pragma mark -
+#pragma mark Programs
+#endif
+
+/*
+	Each program loops forever. It ends with a BRA.W back to its
+	start, whose displacement is filled in when it is loaded.
+*/
+
+struct BenchProg {
+	char *Name;
+	ui4b *Code;
+	ui4r NWords;
+};
+typedef struct BenchProg BenchProg;
+
+LOCALVAR ui4b ProgAlu[] = {
+	0xD081, /* ADD.L D1,D0 */
+	0x9682, /* SUB.L D2,D3 */
+	0xCA84, /* AND.L D4,D5 */
+	0x8480, /* OR.L D0,D2 */
+	0xB781, /* EOR.L D3,D1 */
+	0xE38C, /* LSL.L #1,D4 */
+	0x5285, /* ADDQ.L #1,D5 */
+	0x2800, /* MOVE.L D0,D4 */
+	0xB481, /* CMP.L D1,D2 */
+	0x7605, /* MOVEQ #5,D3 */
+	0x4680, /* NOT.L D0 */
+	0x4481, /* NEG.L D1 */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+LOCALVAR ui4b ProgMemory[] = {
+	0x41F9, 0x0004, 0x0000, /* LEA $40000,A0 */
+	0x43F9, 0x0006, 0x0000, /* LEA $60000,A1 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x22D8, /* l: MOVE.L (A0)+,(A1)+ */
+	0x2018, /* MOVE.L (A0)+,D0 */
+	0xD199, /* ADD.L D0,(A1)+ */
+	0x3418, /* MOVE.W (A0)+,D2 */
+	0x32C2, /* MOVE.W D2,(A1)+ */
+	0x1228, 0x0003, /* MOVE.B 3(A0),D1 */
+	0x1341, 0x0005, /* MOVE.B D1,5(A1) */
+	0x51CF, 0xFFEC, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+LOCALVAR ui4b ProgBranch[] = {
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x7000, /* MOVEQ #0,D0 */
+	0x5280, /* l: ADDQ.L #1,D0 */
+	0x0800, 0x0000, /* BTST #0,D0 */
+	0x6604, /* BNE.S a */
+	0x5281, /* ADDQ.L #1,D1 */
+	0x6002, /* BRA.S b */
+	0x5381, /* a: SUBQ.L #1,D1 */
+	0xB081, /* b: CMP.L D1,D0 */
+	0x6D02, /* BLT.S c */
+	0x4E71, /* NOP */
+	0x4A81, /* c: TST.L D1 */
+	0x6702, /* BEQ.S d */
+	0x6108, /* BSR.S s */
+	0x51CF, 0xFFE4, /* d: DBRA D7,l */
+	0x6000, 0x0000, /* BRA.W start */
+	0x5482, /* s: ADDQ.L #2,D2 */
+	0x4E75 /* RTS */
+};
+
+LOCALVAR ui4b ProgRegions[] = {
+	0x41F9, 0x0040, 0x0000, /* LEA $400000,A0 */
+	0x43F9, 0x0004, 0x0000, /* LEA $40000,A1 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x2018, /* l: MOVE.L (A0)+,D0 */
+	0x8199, /* OR.L D0,(A1)+ */
+	0x3018, /* MOVE.W (A0)+,D0 */
+	0xD151, /* ADD.W D0,(A1) */
+	0x51CF, 0xFFF6, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+LOCALVAR ui4b ProgShift[] = {
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x203C, 0x1234, 0x5678, /* MOVE.L #$12345678,D0 */
+	0x2200, /* l: MOVE.L D0,D1 */
+	0xE289, /* LSR.L #1,D1 */
+	0x6402, /* BCC.S a */
+	0x5282, /* ADDQ.L #1,D2 */
+	0xE549, /* a: LSL.W #2,D1 */
+	0x6502, /* BCS.S b */
+	0x5283, /* ADDQ.L #1,D3 */
+	0xE681, /* b: ASR.L #3,D1 */
+	0xD981, /* ADDX.L D1,D4 */
+	0xE398, /* ROL.L #1,D0 */
+	0x51CF, 0xFFEA, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+LOCALVAR ui4b ProgMulDiv[] = {
+	0x7203, /* MOVEQ #3,D1 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x7064, /* l: MOVEQ #100,D0 */
+	0xC0C1, /* MULU.W D1,D0 */
+	0x2400, /* MOVE.L D0,D2 */
+	0x84C1, /* DIVU.W D1,D2 */
+	0xC1C1, /* MULS.W D1,D0 */
+	0x81C1, /* DIVS.W D1,D0 */
+	0x51CF, 0xFFF2, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+LOCALVAR ui4b ProgMovem[] = {
+	0x41F9, 0x0004, 0x0000, /* LEA $40000,A0 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x48D0, 0x007F, /* l: MOVEM.L D0-D6,(A0) */
+	0x4CD0, 0x007F, /* MOVEM.L (A0),D0-D6 */
+	0x48E7, 0xF060, /* MOVEM.L D0-D3/A1-A2,-(A7) */
+	0x4CDF, 0x060F, /* MOVEM.L (A7)+,D0-D3/A1-A2 */
+	0x51CF, 0xFFEE, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+
+#if Use68020
+LOCALVAR ui4b Prog68020[] = {
+	0x41F9, 0x0004, 0x0000, /* LEA $40000,A0 */
+	0x7203, /* MOVEQ #3,D1 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0x4C01, 0x2800, /* l: MULS.L D1,D2 */
+	0xE9C0, 0x3108, /* BFEXTU D0{4:8},D3 */
+	0x2830, 0x1C00, /* MOVE.L 0(A0,D1.L*4),D4 */
+	0x49C5, /* EXTB.L D5 */
+	0xD483, /* ADD.L D3,D2 */
+	0x51CF, 0xFFEE, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+#endif
+
+#if EmFPU
+LOCALVAR ui4b ProgFPU[] = {
+	0x7007, /* MOVEQ #7,D0 */
+	0x7203, /* MOVEQ #3,D1 */
+	0xF200, 0x4000, /* FMOVE.L D0,FP0 */
+	0xF201, 0x4080, /* FMOVE.L D1,FP1 */
+	0x3E3C, 0x00FF, /* MOVE.W #255,D7 */
+	0xF200, 0x0500, /* l: FMOVE.X FP1,FP2 */
+	0xF200, 0x0522, /* FADD.X FP1,FP2 */
+	0xF200, 0x0123, /* FMUL.X FP0,FP2 */
+	0xF200, 0x0520, /* FDIV.X FP1,FP2 */
+	0xF200, 0x01A8, /* FSUB.X FP0,FP3 */
+	0xF200, 0x0A04, /* FSQRT.X FP2,FP4 */
+	0xF203, 0x6100, /* FMOVE.L FP2,D3 */
+	0x51CF, 0xFFE2, /* DBRA D7,l */
+	0x6000, 0x0000 /* BRA.W start */
+};
+#endif
+
+#define BenchProgEntry(name, code) \
+	{name, code, sizeof(code) / sizeof(ui4b)}
+
+LOCALVAR BenchProg BenchProgs[] = {
+	BenchProgEntry("alu", ProgAlu),
+	BenchProgEntry("memory", ProgMemory),
+	BenchProgEntry("regions", ProgRegions),
+	BenchProgEntry("branch", ProgBranch),
+	BenchProgEntry("shift", ProgShift),
+	BenchProgEntry("muldiv", ProgMulDiv),
+	BenchProgEntry("movem", ProgMovem),
+#if Use68020
+	BenchProgEntry("68020", Prog68020),
+#endif
+#if EmFPU
+	BenchProgEntry("fpu", ProgFPU),
+#endif
+};
+
+#define kNumBenchProgs (sizeof(BenchProgs) / sizeof(BenchProg))
+
+#if 0
+#pragma mark -
+#pragma mark Machine
+#endif
+
+LOCALPROC SetUpBenchATT(void)
+{
+	ATTep p = &BenchATT[0];
+
+	p->Next = &BenchATT[1];
+	p->cmpmask = ~ (ui5r)(kBenchRAM_Size - 1);
+	p->cmpvalu = 0;
+	p->Access = kATTA_readwritereadymask;
+	p->usemask = kBenchRAM_Size - 1;
+	p->usebase = BenchRAM;
+	p->MMDV = 0;
+	p->Ntfy = 0;
+
+	++p;
+	p->Next = &BenchATT[2];
+	p->cmpmask = ~ (ui5r)(kBenchROM_Size - 1);
+	p->cmpvalu = kBenchROM_Base;
+	p->Access = kATTA_readreadymask;
+	p->usemask = kBenchROM_Size - 1;
+	p->usebase = BenchROM;
+	p->MMDV = 0;
+	p->Ntfy = 0;
+
+	/* guard */
+	++p;
+	p->Next = nullpr;
+	p->cmpmask = 0;
+	p->cmpvalu = 0;
+	p->Access = 0;
+	p->usemask = 0;
+	p->usebase = nullpr;
+	p->MMDV = 0;
+	p->Ntfy = 0;
+
+	SetHeadATTel(&BenchATT[0]);
+}
+
+LOCALPROC LoadBenchProg(BenchProg *prog)
+{
+	ui5r i;
+	ui5r addr;
+
+	memset(BenchRAM, 0, kBenchRAM_Size);
+	for (i = 0; i < kBenchROM_Size; ++i) {
+		BenchROM[i] = (ui3b)(i * 7);
+	}
+
+	do_put_mem_long(BenchRAM + 0, kStackTop);
+	do_put_mem_long(BenchRAM + 4, kCodeAddr);
+	for (i = 2; i < 256; ++i) {
+		/* any exception ends up spinning at kTrapAddr */
+		do_put_mem_long(BenchRAM + 4 * i, kTrapAddr);
+	}
+	do_put_mem_word(BenchRAM + kTrapAddr, 0x60FE); /* BRA.S * */
+
+	addr = kCodeAddr;
+	for (i = 0; i < prog->NWords; ++i) {
+		do_put_mem_word(BenchRAM + addr, prog->Code[i]);
+		addr += 2;
+	}
+
+	/* patch the BRA.W back to the start */
+	i = prog->NWords - 1;
+	while ((0x6000 != prog->Code[i - 1]) || (0 != prog->Code[i])) {
+		--i;
+	}
+	addr = kCodeAddr + 2 * i;
+	do_put_mem_word(BenchRAM + addr, (ui4b)(kCodeAddr - addr));
+
+	RAM = BenchRAM;
+	ROM = BenchROM;
+	/* the code was written above, without marking it */
+	memset(RAMDirty, kRAMDirtyAll, sizeof(RAMDirty));
+	SetUpBenchATT();
+	m68k_reset();
+
+	/* start each program from the same registers */
+	for (i = 0; i < 15; ++i) {
+		regs.regs[i] = 0;
+	}
+}
+
+LOCALFUNC ui5r GetBenchPC(void)
+{
+	ui5r pc;
+
+	Em_Enter();
+	pc = m68k_getpc();
+	Em_Exit();
+
+	return pc;
+}
+
+LOCALPROC StepOneInstruction(void)
+{
+	/*
+		m68k_go_MaxCycles always runs at least one instruction,
+		and with a budget of one cycle runs exactly one.
+	*/
+	regs.ResidualCycles = 0;
+	m68k_go_nCycles(1);
+}
+
+LOCALFUNC double NowSec(void)
+{
+	struct timespec ts;
+
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+#if 0
+#pragma mark -
+#pragma mark Measuring
+#endif
+
+LOCALVAR ui5b ClassCounts[kNumIKinds];
+#if WantMATCStats
+LOCALVAR ui5r ProfileMATCWayHits;
+LOCALVAR ui5r ProfileMATCMisses;
+#endif
+
+LOCALFUNC blnr ProfileBenchProg(BenchProg *prog)
+{
+	ui5r i;
+	ui5r pc;
+
+	LoadBenchProg(prog);
+	memset(ClassCounts, 0, sizeof(ClassCounts));
+#if WantMATCStats
+	ProfileMATCWayHits = 0;
+	ProfileMATCMisses = 0;
+#endif
+
+	for (i = 0; i < kProfileInstrs; ++i) {
+		pc = GetBenchPC();
+		if (kTrapAddr == pc) {
+			fprintf(stderr, "%s: exception after %u instructions\n",
+				prog->Name, (unsigned)i);
+			return falseblnr;
+		}
+		++ClassCounts[regs.disp_table[get_vm_word(pc)].x.MainClas];
+#if WantMATCStats
+		/* not counting the get_vm_word above */
+		MATCWayHits = 0;
+		MATCMisses = 0;
+#endif
+		StepOneInstruction();
+#if WantMATCStats
+		ProfileMATCWayHits += MATCWayHits;
+		ProfileMATCMisses += MATCMisses;
+#endif
+	}
+
+	return trueblnr;
+}
+
+LOCALPROC ReportClasses(void)
+{
+	ui5r i;
+
+	for (i = 0; i < kNumIKinds; ++i) {
+		if (0 != ClassCounts[i]) {
+			printf("    %-16s %5.1f%%\n", IKindName[i],
+				100.0 * ClassCounts[i] / kProfileInstrs);
+		}
+	}
+#if WantMATCStats
+	printf("    MATC misses: %u found in other entries,"
+		" %u searched the ATT\n",
+		(unsigned)ProfileMATCWayHits, (unsigned)ProfileMATCMisses);
+#endif
+}
+
+LOCALFUNC double TimeBenchProg(BenchProg *prog, ui5r NInstrs)
+{
+	ui5r start;
+	double t0;
+	double t;
+	double best = 0;
+	int trial;
+
+	LoadBenchProg(prog);
+
+	/* warm up the caches and the branch predictor */
+	m68k_go_nCycles(kChunkCycles);
+
+	for (trial = 0; trial < kNumTrials; ++trial) {
+		start = InstructionsExecuted;
+		t0 = NowSec();
+		do {
+			m68k_go_nCycles(kChunkCycles);
+		} while ((ui5r)(InstructionsExecuted - start) < NInstrs);
+		t = (NowSec() - t0) * 1e9
+			/ (ui5r)(InstructionsExecuted - start);
+		if ((0 == trial) || (t < best)) {
+			best = t;
+		}
+	}
+
+	if (kTrapAddr == GetBenchPC()) {
+		fprintf(stderr, "%s: exception while timing\n", prog->Name);
+	}
+
+	return best;
+}
+
+LOCALPROC Usage(void)
+{
+	ui5r i;
+
+	fprintf(stderr, "usage: bench68k [-n millions] [program ...]\n");
+	fprintf(stderr, "programs:");
+	for (i = 0; i < kNumBenchProgs; ++i) {
+		fprintf(stderr, " %s", BenchProgs[i].Name);
+	}
+	fprintf(stderr, "\n");
+	exit(2);
+}
+
+LOCALFUNC blnr WantBenchProg(BenchProg *prog, int argc, char **argv)
+{
+	int i;
+
+	if (0 == argc) {
+		return trueblnr;
+	}
+	for (i = 0; i < argc; ++i) {
+		if (0 == strcmp(argv[i], prog->Name)) {
+			return trueblnr;
+		}
+	}
+	return falseblnr;
+}
+
+int main(int argc, char **argv)
+{
+	ui5r i;
+	ui5r NInstrs = 20000000;
+	double ns;
+	double total = 0;
+	int n = 0;
+	blnr ok = trueblnr;
+
+	++argv;
+	--argc;
+	if ((argc >= 2) && (0 == strcmp(argv[0], "-n"))) {
+		NInstrs = (ui5r)(atof(argv[1]) * 1000000);
+		if (0 == NInstrs) {
+			Usage();
+		}
+		argv += 2;
+		argc -= 2;
+	}
+	for (i = 0; i < (ui5r)argc; ++i) {
+		if ('-' == argv[i][0]) {
+			Usage();
+		}
+	}
+
+	MINEM68K_Init(&BenchIPL);
+
+	printf("%u instructions per trial, best of %d\n",
+		(unsigned)NInstrs, kNumTrials);
+	for (i = 0; i < kNumBenchProgs; ++i) {
+		BenchProg *prog = &BenchProgs[i];
+
+		if (! WantBenchProg(prog, argc, argv)) {
+			continue;
+		}
+		if (! ProfileBenchProg(prog)) {
+			ok = falseblnr;
+			continue;
+		}
+		ns = TimeBenchProg(prog, NInstrs);
+		printf("%-8s %7.2f ns/instruction %8.1f MIPS\n",
+			prog->Name, ns, 1000.0 / ns);
+		ReportClasses();
+		total += ns;
+		++n;
+	}
+	if (n > 1) {
+		printf("mean     %7.2f ns/instruction\n", total / n);
+	}
+
+	return ok ? 0 : 1;
+}
@@ -0,0 +1,248 @@
+package name.osher.gil.minivmac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Desktop stand-in for the Android Core, for running the emulator
+ * headless on a plain JVM.
+ *
+ * It has the fields and callbacks the native side looks up, but no
+ * display or sound. Disk images are read into memory and handed to
+ * the native side like a mapped disk, so the image files are never
+ * changed and every run starts from the same disks.
+ */
+public class Core {
+	private int numInsertedDisks = 0;
+	@SuppressWarnings("unused") private String[] diskPath;
+	@SuppressWarnings("unused") private IDiskImage[] diskFile;
+	private boolean initOk = false;
+
+	private final ArrayDeque<File> mInitialDisks = new ArrayDeque<>();
+	private OnHeadlessSecondListener mOnHeadlessSecondListener;
+
+	public static void nativeCrashed() {
+		System.err.println("Native crashed!");
+	}
+
+	public Core(List<File> disks) {
+		mInitialDisks.addAll(disks);
+	}
+
+	public void setOnHeadlessSecondListener(OnHeadlessSecondListener listener) {
+		mOnHeadlessSecondListener = listener;
+	}
+
+	// initialization
+	private native static boolean init(Core core, ByteBuffer rom);
+	private native static void setHeadlessTicks(int ticks);
+	private native static void _setIdleSleep(boolean value);
+	private native static void _setStartState(String path);
+	private native static void _setAutosave(String path, int seconds);
+
+	// profile of the emulated program, setProfiling(true) starts a new one
+	private native static void setProfiling(boolean value);
+	public native static String getProfileReport();
+
+	// must be called on the thread that runs the emulation, it only returns once the run is over
+	// startState, if not null, is loaded once the machine is up and then deleted
+	// autosave, if not null, is saved to every autosaveSeconds of emulated time
+	public boolean runHeadless(String libPath, ByteBuffer rom, int ticks, boolean profile, File startState,
+			File autosave, int autosaveSeconds) {
+		System.load(libPath);
+		_setIdleSleep(false);
+		setProfiling(profile);
+		setHeadlessTicks(ticks);
+		if (startState != null) {
+			_setStartState(startState.getAbsolutePath());
+		}
+		if (autosave != null) {
+			_setAutosave(autosave.getAbsolutePath(), autosaveSeconds);
+		}
+		return init(this, rom);
+	}
+
+	// save states
+	private native static boolean _saveState(String path);
+
+	// the disk images are not part of the state, and since writes never reach the files here,
+	// loading it only gives the same run if the emulated program hasn't written to them
+	public boolean saveState(File f) {
+		if (!initOk) return false;
+		return _saveState(f.getAbsolutePath());
+	}
+
+	// called by the state writer before it commits a state, nothing to flush here
+	@SuppressWarnings("unused")
+	public void flushDisks() {
+	}
+
+	public boolean isInitOk() {
+		return initOk;
+	}
+
+	// headless callbacks
+	@SuppressWarnings("unused")
+	public void onHeadlessSecond(int second, int frameHash, long instructions) {
+		if (mOnHeadlessSecondListener != null) {
+			mOnHeadlessSecondListener.onHeadlessSecond(second, frameHash, instructions);
+		}
+	}
+
+	// screen
+	public void initScreen() {
+		// no screen buffer is set, so the native side never converts or sends frames
+	}
+
+	public void updateScreen(int top, int left, int bottom, int right) {
+	}
+
+	// sound
+	public boolean MySound_Init(ByteBuffer buf) {
+		// nobody plays the sound buffer, the emulator just keeps overwriting it
+		return true;
+	}
+
+	public int playSound(int offset, int size) {
+		return size;
+	}
+
+	public void MySound_Start() {
+	}
+
+	public void MySound_Stop() {
+	}
+
+	public void MySound_UnInit() {
+	}
+
+	// disks
+	private native static void notifyDiskInserted(int driveNum, boolean locked);
+	private native static void notifyDiskEjected(int driveNum);
+	private native static void notifyDiskMapped(int driveNum, ByteBuffer buf, boolean writable);
+	private native static int getFirstFreeDisk();
+
+	public int sonyTransfer(boolean isWrite, ByteBuffer buf, int driveNum, int start, int length) {
+		// mapped disks are read and written natively
+		return -1;
+	}
+
+	public int sonyGetSize(int driveNum) {
+		if (diskFile[driveNum] == null) return 0;
+		return (int)diskFile[driveNum].length();
+	}
+
+	public int sonyEject(int driveNum, boolean deleteit) {
+		if (diskFile[driveNum] == null) return -1;
+		int ret;
+		try {
+			diskFile[driveNum].close();
+			ret = 0;
+		} catch (Exception x) {
+			ret = -1;
+		}
+
+		diskFile[driveNum] = null;
+		diskPath[driveNum] = null;
+		numInsertedDisks--;
+
+		notifyDiskEjected(driveNum);
+		return ret;
+	}
+
+	public String sonyGetName(int driveNum) {
+		if (diskPath[driveNum] == null) return null;
+		return new File(diskPath[driveNum]).getName();
+	}
+
+	public int sonyMakeNewDisk(int size, String drivepath) {
+		return -1;
+	}
+
+	// called for disk1.dsk, disk2.dsk, ... at start up, inserts the disks given on the command line in order
+	public boolean sonyInsert2(String filename) {
+		File f = mInitialDisks.poll();
+		return f != null && insertDisk(f);
+	}
+
+	// called while loading a state, to put back a disk it was saved with
+	public boolean sonyInsertAt(String path, int driveNum) {
+		return insertDisk(new File(path), driveNum);
+	}
+
+	public boolean insertDisk(File f) {
+		int driveNum = getFirstFreeDisk();
+		if (driveNum == -1) return false;
+		return insertDisk(f, driveNum);
+	}
+
+	private boolean insertDisk(File f, int driveNum) {
+		if (!f.isFile() || f.length() > Integer.MAX_VALUE) {
+			System.err.println("Can't insert " + f + ".");
+			return false;
+		}
+
+		try {
+			MemoryDisk disk = new MemoryDisk(f);
+			diskFile[driveNum] = disk;
+			notifyDiskMapped(driveNum, disk.mBuffer, true);
+		} catch (IOException x) {
+			System.err.println("Can't insert " + f + ": " + x);
+			diskFile[driveNum] = null;
+			return false;
+		}
+
+		notifyDiskInserted(driveNum, false);
+		diskPath[driveNum] = f.getAbsolutePath();
+		numInsertedDisks++;
+		return true;
+	}
+
+	// warnings
+	public void warnMsg(final String shortMsg, final String longMsg) {
+		System.err.println(shortMsg + ": " + longMsg);
+	}
+
+	// disk image copied into memory, writes never reach the file
+	private static class MemoryDisk implements IDiskImage {
+		private final ByteBuffer mBuffer;
+
+		MemoryDisk(File f) throws IOException {
+			try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+				FileChannel channel = file.getChannel();
+				mBuffer = ByteBuffer.allocateDirect((int)channel.size());
+				while (mBuffer.hasRemaining()) {
+					if (channel.read(mBuffer) < 0) break;
+				}
+			}
+		}
+
+		@Override
+		public long length() {
+			return mBuffer.capacity();
+		}
+
+		@Override
+		public int transfer(boolean isWrite, ByteBuffer buf, long start, int length) {
+			// never called, the native side copies to and from the buffer itself
+			return -1;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	interface OnHeadlessSecondListener {
+		void onHeadlessSecond(int second, int frameHash, long instructions);
+	}
+}
@@ -0,0 +1,134 @@
+package name.osher.gil.minivmac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the emulator headless for a number of emulated seconds and
+ * reports how fast it went, plus a hash of the screen at the end of
+ * every emulated second.
+ *
+ * Usage: HostHarness library rom seconds [disk ...]
+ *
+ * With -Dminivmac.profile=true it also prints a sampling profile of
+ * the emulated program at the end.
+ *
+ * With -Dminivmac.saveState=file and -Dminivmac.saveAt=n it saves the
+ * machine to file at the end of emulated second n. With
+ * -Dminivmac.loadState=file it starts from a copy of that state
+ * instead of from reset, so its second 1 should give the same frame
+ * as second n + 1 of the run that saved it.
+ *
+ * With -Dminivmac.autosave=file and -Dminivmac.autosaveSeconds=n it
+ * keeps file up to date every n emulated seconds, like the app does.
+ *
+ * A run does the same work every time, so the frame hashes can be
+ * compared between builds to catch changes in behaviour, and the
+ * timings to catch changes in speed.
+ */
+public class HostHarness {
+	private static final int TICKS_PER_SECOND = 60;
+	private static final boolean PROFILE = Boolean.getBoolean("minivmac.profile");
+	private static final String SAVE_STATE = System.getProperty("minivmac.saveState");
+	private static final int SAVE_AT = Integer.getInteger("minivmac.saveAt", 0);
+	private static final String LOAD_STATE = System.getProperty("minivmac.loadState");
+	private static final String AUTOSAVE = System.getProperty("minivmac.autosave");
+	private static final int AUTOSAVE_SECONDS = Integer.getInteger("minivmac.autosaveSeconds", 30);
+
+	private int mSecondsDone = 0;
+	private int mLastFrameHash = 0;
+	private long mInstructions = -1;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("usage: HostHarness library rom seconds [disk ...]");
+			System.exit(2);
+		}
+
+		String libPath = new File(args[0]).getAbsolutePath();
+		ByteBuffer rom = readFile(new File(args[1]));
+		int seconds = Integer.parseInt(args[2]);
+		List<File> disks = new ArrayList<>();
+		for (int i = 3; i < args.length; i++) {
+			disks.add(new File(args[i]));
+		}
+
+		boolean ok = new HostHarness().run(libPath, rom, seconds, disks);
+		System.exit(ok ? 0 : 1);
+	}
+
+	private static ByteBuffer readFile(File f) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect((int)channel.size());
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0) break;
+			}
+			return buf;
+		}
+	}
+
+	private static File copyToTemp(File f) throws IOException {
+		File copy = File.createTempFile("minivmac", ".state");
+		copy.deleteOnExit();
+		Files.copy(f.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	private boolean run(String libPath, ByteBuffer rom, int seconds, List<File> disks) throws IOException, InterruptedException {
+		Core core = new Core(disks);
+		core.setOnHeadlessSecondListener((second, frameHash, instructions) -> {
+			System.out.println(String.format(Locale.US, "second %d frame %08x", second, frameHash));
+			mSecondsDone = second;
+			mLastFrameHash = frameHash;
+			mInstructions = instructions;
+			// called between ticks on the emulation thread, so the state is saved right away
+			if (SAVE_STATE != null && second == SAVE_AT && !core.saveState(new File(SAVE_STATE))) {
+				System.err.println("Can't save state to " + SAVE_STATE + ".");
+			}
+		});
+
+		// the core deletes the state it starts from, so it gets a copy
+		File startState = (LOAD_STATE == null) ? null : copyToTemp(new File(LOAD_STATE));
+		File autosave = (AUTOSAVE == null) ? null : new File(AUTOSAVE);
+
+		long[] wallNanos = new long[1];
+		// the library has to be loaded on the thread that runs the emulation
+		Thread emulation = new Thread(() -> {
+			long start = System.nanoTime();
+			core.runHeadless(libPath, rom, seconds * TICKS_PER_SECOND, PROFILE, startState,
+					autosave, AUTOSAVE_SECONDS);
+			wallNanos[0] = System.nanoTime() - start;
+		}, "EmulationThread");
+		emulation.start();
+		emulation.join();
+
+		if (mSecondsDone != seconds) {
+			System.err.println("Emulation stopped after " + mSecondsDone + " of " + seconds + " seconds.");
+			return false;
+		}
+
+		double wall = wallNanos[0] / 1e9;
+		System.out.println(String.format(Locale.US, "emulated seconds: %d", seconds));
+		System.out.println(String.format(Locale.US, "wall seconds: %.3f", wall));
+		System.out.println(String.format(Locale.US, "ticks per second: %.1f (%.2fx real time)",
+				seconds * TICKS_PER_SECOND / wall, seconds / wall));
+		if (mInstructions >= 0) {
+			System.out.println(String.format(Locale.US, "emulated MIPS: %.2f", mInstructions / wall / 1e6));
+		}
+		System.out.println(String.format(Locale.US, "final frame: %08x", mLastFrameHash));
+		if (PROFILE) {
+			System.out.println();
+			System.out.print(Core.getProfileReport());
+		}
+		return true;
+	}
+}
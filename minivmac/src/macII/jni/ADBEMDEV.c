@@ -212,3 +212,20 @@ GLOBALPROC ADB_Update(void)
 		}
 	}
 }
+
+GLOBALPROC ADB_StateIO(void)
+{
+	State_Var(ADB_ListenDatBuf);
+	State_Var(ADB_IndexDatBuf);
+
+	State_Var(ADB_SzDatBuf);
+	State_Var(ADB_TalkDatBuf);
+	State_Var(ADB_DatBuf);
+	State_Var(ADB_CurCmd);
+	State_Var(NotSoRandAddr);
+	State_Var(MouseADBAddress);
+	State_Var(SavedCurMouseButton);
+	State_Var(MouseADBDeltaH);
+	State_Var(MouseADBDeltaV);
+	State_Var(KeyboardADBAddress);
+}
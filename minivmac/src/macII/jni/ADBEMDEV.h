@@ -25,3 +25,4 @@ EXPORTPROC ADBstate_ChangeNtfy(void);
 EXPORTPROC ADB_DoNewState(void);
 EXPORTPROC ADB_DataLineChngNtfy(void);
 EXPORTPROC ADB_Update(void);
+EXPORTPROC ADB_StateIO(void);
@@ -866,3 +866,19 @@ label_retry:
 	}
 #endif
 }
+
+GLOBALPROC ASC_StateIO(void)
+{
+	State_Var(SoundReg801);
+	State_Var(SoundReg802);
+	State_Var(SoundReg803);
+	State_Var(SoundReg804);
+	State_Var(SoundReg805);
+	State_Var(SoundReg_Volume);
+	State_Var(ASC_SampBuff);
+	State_Var(ASC_ChanA);
+	State_Var(ASC_FIFO_Out);
+	State_Var(ASC_FIFO_InA);
+	State_Var(ASC_FIFO_InB);
+	State_Var(ASC_Playing);
+}
@@ -22,3 +22,4 @@
 
 EXPORTFUNC ui5b ASC_Access(ui5b Data, blnr WriteMem, CPTR addr);
 EXPORTPROC ASC_SubTick(int SubTick);
+EXPORTPROC ASC_StateIO(void);
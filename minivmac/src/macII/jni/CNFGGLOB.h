@@ -70,6 +70,7 @@ typedef signed long long si6b;
 typedef unsigned long long ui6r;
 typedef unsigned long long ui6b;
 #define LIT64(a) a##ULL
+#define HaveUi6Div 1
 
 /* capabilities provided by platform specific code */
 
@@ -100,6 +101,7 @@ typedef unsigned long long ui6b;
 
 #define IncludeHostTextClipExchange 0
 #define EnableAutoSlow 1
+#define EnableIdleSleep 1
 #define EmLocalTalk 0
 #define AutoLocation 1
 #define AutoTimeZone 1
@@ -612,6 +612,23 @@ LOCALPROC Ui5to6Mul( ui5b src1, ui5b src2, ui6b *z)
 #endif
 
 
+#ifndef HaveUi6to7Mul
+#ifdef __SIZEOF_INT128__
+#define HaveUi6to7Mul 1
+#else
+#define HaveUi6to7Mul 0
+#endif
+#endif
+
+#if HaveUi6to7Mul
+LOCALINLINEPROC mul64To128( ui6b a, ui6b b, ui6b *z0Ptr, ui6b *z1Ptr )
+{
+	unsigned __int128 z = ((unsigned __int128) a) * b;
+
+	*z1Ptr = (ui6b) z;
+	*z0Ptr = (ui6b) (z >> 64);
+}
+#else
 LOCALINLINEPROC mul64To128( ui6b a, ui6b b, ui6b *z0Ptr, ui6b *z1Ptr )
 {
 	ui5b aHigh, aLow, bHigh, bLow;
@@ -636,6 +653,7 @@ LOCALINLINEPROC mul64To128( ui6b a, ui6b b, ui6b *z0Ptr, ui6b *z1Ptr )
 	*z0Ptr = z0;
 
 }
+#endif
 
 /*----------------------------------------------------------------------------
 | Multiplies the 128-bit value formed by concatenating `a0' and `a1' by
@@ -5638,6 +5656,78 @@ approximation_completed:
 
 typedef floatx80 myfpr;
 
+/*
+	UseHostFloat does the basic arithmetic with the host's own
+	extended precision, where that is the same 80 bit format as
+	the 68881's (the x87 long double, with the precision control
+	left at 64 bits, as gcc and clang do). The result is only
+	taken when it must match the emulation's exactly: round to
+	nearest, full precision, and normalized operands and result.
+	Zeros, infinities, NaNs, denormals, other rounding modes and
+	precisions, and everything that would overflow or underflow
+	still go through the emulation.
+*/
+
+#ifndef UseHostFloat
+#define UseHostFloat 0
+#endif
+
+#if UseHostFloat
+
+#include <float.h>
+#include <math.h>
+
+#if (LDBL_MANT_DIG != 64) || ! (defined(__i386__) || defined(__x86_64__))
+#error "UseHostFloat needs the x87 long double"
+#endif
+
+typedef union {
+	long double d;
+	floatx80 f;
+} myfp_hostr;
+
+LOCALINLINEFUNC blnr myfp_HostIsNormal(const myfpr *x)
+{
+	ui4r e = x->high & 0x7FFF;
+
+	return (0 != e) && (0x7FFF != e) && (0 != (x->low >> 63));
+}
+
+LOCALINLINEFUNC blnr myfp_HostMode(void)
+{
+	return (float_round_nearest_even == float_rounding_mode)
+		&& (80 == floatx80_rounding_precision);
+}
+
+LOCALINLINEFUNC long double myfp_ToHost(const myfpr *x)
+{
+	myfp_hostr t;
+
+	t.f = *x;
+	return t.d;
+}
+
+LOCALINLINEFUNC blnr myfp_FromHost(myfpr *r, long double v)
+{
+	myfp_hostr t;
+
+	t.d = v;
+	if (! myfp_HostIsNormal(&t.f)) {
+		return falseblnr;
+	}
+	r->low = t.f.low;
+	r->high = t.f.high;
+	return trueblnr;
+}
+
+LOCALFUNC blnr myfp_HostArgs2(const myfpr *a, const myfpr *b)
+{
+	return myfp_HostMode()
+		&& myfp_HostIsNormal(a) && myfp_HostIsNormal(b);
+}
+
+#endif /* UseHostFloat */
+
 LOCALPROC myfp_FromExtendedFormat(myfpr *r, ui4r v2, ui5r v1, ui5r v0)
 {
 	r->high = v2;
@@ -5708,21 +5798,49 @@ LOCALFUNC blnr myfp_IsNeg(myfpr *x)
 
 LOCALPROC myfp_Add(myfpr *r, const myfpr *a, const myfpr *b)
 {
+#if UseHostFloat
+	if (myfp_HostArgs2(a, b)
+		&& myfp_FromHost(r, myfp_ToHost(a) + myfp_ToHost(b)))
+	{
+		return;
+	}
+#endif
 	*r = floatx80_add(*a, *b);
 }
 
 LOCALPROC myfp_Sub(myfpr *r, const myfpr *a, const myfpr *b)
 {
+#if UseHostFloat
+	if (myfp_HostArgs2(a, b)
+		&& myfp_FromHost(r, myfp_ToHost(a) - myfp_ToHost(b)))
+	{
+		return;
+	}
+#endif
 	*r = floatx80_sub(*a, *b);
 }
 
 LOCALPROC myfp_Mul(myfpr *r, const myfpr *a, const myfpr *b)
 {
+#if UseHostFloat
+	if (myfp_HostArgs2(a, b)
+		&& myfp_FromHost(r, myfp_ToHost(a) * myfp_ToHost(b)))
+	{
+		return;
+	}
+#endif
 	*r = floatx80_mul(*a, *b);
 }
 
 LOCALPROC myfp_Div(myfpr *r, const myfpr *a, const myfpr *b)
 {
+#if UseHostFloat
+	if (myfp_HostArgs2(a, b)
+		&& myfp_FromHost(r, myfp_ToHost(a) / myfp_ToHost(b)))
+	{
+		return;
+	}
+#endif
 	*r = floatx80_div(*a, *b);
 }
 
@@ -5733,6 +5851,13 @@ LOCALPROC myfp_Rem(myfpr *r, const myfpr *a, const myfpr *b)
 
 LOCALPROC myfp_Sqrt(myfpr *r, myfpr *x)
 {
+#if UseHostFloat
+	if (myfp_HostMode() && myfp_HostIsNormal(x) && ! myfp_IsNeg(x)
+		&& myfp_FromHost(r, sqrtl(myfp_ToHost(x))))
+	{
+		return;
+	}
+#endif
 	*r = floatx80_sqrt(*x);
 }
 
@@ -1222,3 +1222,16 @@ GLOBALPROC VIA2_iCB2_PulseNtfy(void)
 	VIA2_SetInterruptFlag(kIntCB2);
 }
 #endif
+
+GLOBALPROC VIA2_StateIO(void)
+{
+	State_Var(VIA2_D);
+	State_Var(VIA2_T1_Active);
+	State_Var(VIA2_T2_Active);
+	State_Var(VIA2_T1IntReady);
+	State_Var(VIA2_T1Running);
+	State_Var(VIA2_T1LastTime);
+	State_Var(VIA2_T2Running);
+	State_Var(VIA2_T2C_ShortTime);
+	State_Var(VIA2_T2LastTime);
+}
@@ -22,6 +22,7 @@
 
 EXPORTPROC VIA2_Zap(void);
 EXPORTPROC VIA2_Reset(void);
+EXPORTPROC VIA2_StateIO(void);
 
 EXPORTFUNC ui5b VIA2_Access(ui5b Data, blnr WriteMem, CPTR addr);
 
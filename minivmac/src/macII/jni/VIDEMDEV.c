@@ -1002,3 +1002,22 @@ GLOBALPROC ExtnVideo_Access(CPTR p)
 
 	put_vm_word(p + ExtnDat_result, result);
 }
+
+GLOBALPROC Vid_StateIO(void)
+{
+#if 0 != vMacScreenDepth
+	State_Var(UseColorMode);
+#endif
+	State_Var(UseGrayTones);
+#if (0 != vMacScreenDepth) && (vMacScreenDepth < 4)
+	State_Var(CLUT_reds);
+	State_Var(CLUT_greens);
+	State_Var(CLUT_blues);
+#endif
+
+#if 0 != vMacScreenDepth
+	if (StateLoading) {
+		ColorMappingChanged = trueblnr;
+	}
+#endif
+}
@@ -23,5 +23,6 @@
 EXPORTFUNC blnr Vid_Init(void);
 EXPORTFUNC ui4r Vid_Reset(void);
 EXPORTPROC Vid_Update(void);
+EXPORTPROC Vid_StateIO(void);
 
 EXPORTPROC ExtnVideo_Access(CPTR p);
@@ -94,6 +94,7 @@ typedef si5b si5r;
 
 #define IncludeHostTextClipExchange 0
 #define EnableAutoSlow 1
+#define EnableIdleSleep 1
 #define EmLocalTalk 0
 #define AutoLocation 1
 #define AutoTimeZone 1
@@ -212,3 +212,12 @@ GLOBALPROC KeyBoard_Update(void)
 		}
 	}
 }
+
+GLOBALPROC Kybd_StateIO(void)
+{
+	State_Var(KybdState);
+	State_Var(HaveKeyBoardResult);
+	State_Var(KeyBoardResult);
+	State_Var(InstantCommandData);
+	State_Var(InquiryCommandTimer);
+}
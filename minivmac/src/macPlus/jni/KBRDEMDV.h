@@ -25,3 +25,4 @@ EXPORTPROC Kybd_DataLineChngNtfy(void);
 EXPORTPROC DoKybd_ReceiveEndCommand(void);
 EXPORTPROC DoKybd_ReceiveCommand(void);
 EXPORTPROC KeyBoard_Update(void);
+EXPORTPROC Kybd_StateIO(void);
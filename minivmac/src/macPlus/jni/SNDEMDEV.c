@@ -220,4 +220,10 @@ label_retry:
 	}
 }
 
+GLOBALPROC MacSound_StateIO(void)
+{
+	State_Var(SoundInvertPhase);
+	State_Var(SoundInvertState);
+}
+
 #endif
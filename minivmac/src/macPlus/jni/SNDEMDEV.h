@@ -22,4 +22,5 @@
 
 #if MySoundEnabled
 EXPORTPROC MacSound_SubTick(int SubTick);
+EXPORTPROC MacSound_StateIO(void);
 #endif
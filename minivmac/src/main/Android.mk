@@ -18,3 +18,5 @@ LOCAL_SRC_FILES := \
 
 LOCAL_C_INCLUDES += $(LOCAL_PATH)/jni
 
+
+LOCAL_LDLIBS += -lz
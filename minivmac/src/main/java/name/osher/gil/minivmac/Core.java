@@ -1,24 +1,30 @@
 package name.osher.gil.minivmac;
 
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import android.content.DialogInterface;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
+import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.StringRes;
 
 public class Core {
 	private static final String TAG = "minivmac.Core";
+	private static final int AUTOSAVE_SECONDS = 30;
 	
 	private int numInsertedDisks = 0;
 	@SuppressWarnings("unused") private String[] diskPath;
-	@SuppressWarnings("unused") private RandomAccessFile[] diskFile;
+	@SuppressWarnings("unused") private IDiskImage[] diskFile;
+	private static int mDiskCacheSizeKB = 0;
+	private static boolean mMapDisks = false;
+	private static boolean mIdleSleep = true;
 	private boolean initOk = false;
+	private int[] mScreenBuffer;
 
 	private OnInitScreenListener mOnInitScreenListener;
 	private OnUpdateScreenListener mOnUpdateScreenListener;
@@ -61,6 +67,9 @@ public class Core {
 	private native static boolean isPaused();
 	public native static void setSpeed(int value);
 	public native static int getSpeed();
+	public native static void setTurbo(boolean value);
+	public native static boolean isTurbo();
+	private native static void _setIdleSleep(boolean value);
 	private native static void setWantMacReset();
 	private native static void setWantMacInterrupt();
 	private native static void setRequestMacOff();
@@ -69,12 +78,25 @@ public class Core {
 		return mIsInitialized;
 	}
 
-	public Boolean initEmulation(String moduleName, ByteBuffer rom) {
+	// resumeState, if there, is loaded once the machine is up, and then saved to every AUTOSAVE_SECONDS
+	public Boolean initEmulation(String moduleName, ByteBuffer rom, File resumeState) {
 		System.loadLibrary(moduleName);
 		mIsInitialized = true;
+		_setIdleSleep(mIdleSleep);
+		if (resumeState.isFile()) {
+			_setStartState(resumeState.getAbsolutePath());
+		}
+		_setAutosave(resumeState.getAbsolutePath(), AUTOSAVE_SECONDS);
 		return init(this, rom);
 	}
 
+	public static void setIdleSleep(boolean value) {
+		mIdleSleep = value;
+		if (mIsInitialized) {
+			_setIdleSleep(value);
+		}
+	}
+
 	public void wantMacReset() {
 		setWantMacReset();
 	}
@@ -95,6 +117,7 @@ public class Core {
 	
 	public void pauseEmulation() {
 		if (!initOk) return;
+		flushDisks();
 		if (isPaused()) return;
 		_pauseEmulation();
 	}
@@ -102,18 +125,50 @@ public class Core {
 	public void initScreen() {
 		final int width = getScreenWidth();
 		final int height = getScreenHeight();
+		mScreenBuffer = new int[width * height];
+		setScreenBuffer(mScreenBuffer);
 		if (mOnInitScreenListener != null) {
 			mOnInitScreenListener.onInitScreen(width, height);
 		}
 	}
 
+	// the listener owns the screen buffer until it calls screenUpdateDone,
+	// no frame is converted into it before that
 	public void updateScreen(final int top, final int left, final int bottom, final int right) {
-		final int [] screenUpdate = getScreenUpdate();
-		if (mOnUpdateScreenListener != null && screenUpdate != null) {
-			mOnUpdateScreenListener.onUpdateScreen(screenUpdate, top, left, bottom, right);
+		if (mOnUpdateScreenListener != null && mScreenBuffer != null) {
+			mOnUpdateScreenListener.onUpdateScreen(mScreenBuffer, top, left, bottom, right);
+		} else {
+			screenUpdateDone();
 		}
 	}
 	
+	// save states
+	private native static boolean _saveState(String path);
+	private native static boolean _queueSaveState(String path);
+	private native static boolean _loadState(String path);
+	private native static void _setStartState(String path);
+	private native static void _setAutosave(String path, int seconds);
+
+	// saves the emulated machine to f, the disk images in the drives are not part of it,
+	// returns once it is written, the emulation only stops for a moment
+	public boolean saveState(File f) {
+		if (!initOk) return false;
+		return _saveState(f.getAbsolutePath());
+	}
+
+	// like saveState, but returns once the machine is copied, or at once if a save is still being written,
+	// it is written in the background, returns false if there is nothing to save
+	public boolean queueSaveState(File f) {
+		if (!initOk) return false;
+		return _queueSaveState(f.getAbsolutePath());
+	}
+
+	// puts the disks the state was saved with back in their drives, and goes on from the state
+	public boolean loadState(File f) {
+		if (!initOk || !f.isFile()) return false;
+		return _loadState(f.getAbsolutePath());
+	}
+
 	// mouse
 	@SuppressWarnings("unused") private native static void moveMouse(int dx, int dy);
 	private native static void setMousePos(int x, int y);
@@ -122,6 +177,14 @@ public class Core {
 	@SuppressWarnings("unused") private native static int getMouseY();
 	@SuppressWarnings("unused") private native static boolean getMouseButton();
 
+	// input queue statistics
+	public native static int getDroppedInputEvents();
+	public native static int getCoalescedInputEvents();
+
+	// profile of the emulated program, setProfiling(true) starts a new one
+	public native static void setProfiling(boolean value);
+	public native static String getProfileReport();
+
 	public void setMousePosition(int x, int y) {
 		setMousePos(x, y);
 	}
@@ -145,7 +208,8 @@ public class Core {
 	// screen
 	private native static int screenWidth();
 	private native static int screenHeight();
-	private native static int[] getScreenUpdate();
+	private native static void setScreenBuffer(int[] buffer);
+	public native static void screenUpdateDone();
 
 	public int getScreenWidth() {
 		return screenWidth();
@@ -157,8 +221,16 @@ public class Core {
 	
 	// sound
 	private native static void MySound_Start0();
+	private native void MySound_Pump();
+	public native static int getSoundOverruns();
 	
 	private static AudioTrack mAudioTrack;
+	private static ByteBuffer mSoundBuffer;
+	private static byte[] mSoundArray;
+	private static Thread mAudioThread;
+	private static final Object mAudioLock = new Object();
+	private static volatile boolean mAudioRunning = false;
+	private static volatile boolean mAudioPlaying = false;
 
     private static final int SOUND_SAMPLERATE = 22255;
 	private static final int kLn2SoundBuffers = 4;
@@ -166,11 +238,19 @@ public class Core {
 	private static final int kLnAllBuffLen = (kLn2SoundBuffers + kLnOneBuffLen);
 	private static final int kAllBuffLen = (1 << kLnAllBuffLen);
 
-	public boolean MySound_Init() {
+	public boolean MySound_Init(ByteBuffer buf) {
         try {
 			mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, SOUND_SAMPLERATE, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_8BIT, kAllBuffLen, AudioTrack.MODE_STREAM);
+			mSoundBuffer = buf;
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+				mSoundArray = new byte[buf.capacity()];
+			}
 
 			mAudioTrack.pause();
+
+			mAudioRunning = true;
+			mAudioThread = new Thread(this::audioLoop, "AudioThread");
+			mAudioThread.start();
 			return true;
 	    } catch (Throwable tr) {
 	    	Log.e(TAG, "MySound_Init() can't init sound.", tr);
@@ -178,30 +258,81 @@ public class Core {
 	    }
 	}
 	
-	public int playSound(byte[] buf) {
+	// feeds the audio track from the native sound buffer, so a slow write never holds up emulation
+	private void audioLoop() {
+		android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+		synchronized (mAudioLock) {
+			while (mAudioRunning) {
+				if (mAudioPlaying) {
+					MySound_Pump();
+				} else {
+					try {
+						mAudioLock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	// plays size bytes at offset in the native sound buffer, returns the number of bytes taken
+	public int playSound(int offset, int size) {
 		if (mAudioTrack == null) return -1;
-		return mAudioTrack.write(buf, 0, buf.length);
+		mSoundBuffer.limit(offset + size).position(offset);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			return mAudioTrack.write(mSoundBuffer, size, AudioTrack.WRITE_NON_BLOCKING);
+		} else {
+			mSoundBuffer.get(mSoundArray, offset, size);
+			return mAudioTrack.write(mSoundArray, offset, size);
+		}
+	}
+
+	public static int getSoundUnderruns() {
+		if (mAudioTrack == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return 0;
+		return mAudioTrack.getUnderrunCount();
 	}
 
 	public void MySound_Start () {
 		if (mAudioTrack != null) {
 			MySound_Start0();
 			mAudioTrack.play();
+			synchronized (mAudioLock) {
+				mAudioPlaying = true;
+				mAudioLock.notifyAll();
+			}
 		}
 	}
 
 	public void MySound_Stop () {
 		if (mAudioTrack != null) {
+			mAudioPlaying = false;
 			try {
 				mAudioTrack.stop();
 			} catch (Throwable tr) {
 				Log.e(TAG, "MySound_Stop() can't stop sound.", tr);
 			}
+			// wait for the audio thread to be done with the sound buffer
+			synchronized (mAudioLock) {
+				mAudioLock.notifyAll();
+			}
 		}
 	}
 
 	public void MySound_UnInit () {
 		if (mAudioTrack != null) {
+			mAudioRunning = false;
+			mAudioPlaying = false;
+			synchronized (mAudioLock) {
+				mAudioLock.notifyAll();
+			}
+			try {
+				mAudioThread.join();
+			} catch (InterruptedException e) {
+				Log.w(TAG, "MySound_UnInit() interrupted while stopping the audio thread.", e);
+			}
+			mAudioThread = null;
+
 			AudioTrack deletedTrack = mAudioTrack;
 			mAudioTrack = null;
 			try {
@@ -211,40 +342,53 @@ public class Core {
 			}
 			deletedTrack.flush();
 			deletedTrack.release();
+			mSoundBuffer = null;
+			mSoundArray = null;
 		}
 	}
 	
 	// disks
 	private native static void notifyDiskInserted(int driveNum, boolean locked);
 	private native static void notifyDiskEjected(int driveNum);
+	private native static void notifyDiskMapped(int driveNum, ByteBuffer buf, boolean writable);
+	private native static void notifyDiskOpened(int driveNum, int fd, boolean writable);
+	native static void syncDisk(int driveNum);
 	public native static void notifyDiskCreated();
 	private native static int getFirstFreeDisk();
 	@SuppressWarnings("unused") private native static int getNumDrives();
 	
+	public static void setDiskCacheSize(int sizeKB) {
+		mDiskCacheSizeKB = sizeKB;
+	}
+
+	public static void setMapDisks(boolean map) {
+		mMapDisks = map;
+	}
+
+	// also called by the native save state writer, on its own thread,
+	// so it holds diskFile for sonyEject not to close a disk under it
+	public void flushDisks() {
+		if (diskFile == null) return;
+		synchronized (diskFile) {
+			for (int i = 0; i < diskFile.length; i++) {
+				IDiskImage disk = diskFile[i];
+				if (disk == null) continue;
+				try {
+					disk.flush();
+				} catch (IOException x) {
+					Log.e(TAG, "Failed to flush drive number " + i + ".", x);
+				}
+			}
+		}
+	}
+
 	// disk driver callbacks
 	public int sonyTransfer(boolean isWrite, ByteBuffer buf, int driveNum, int start, int length) {
 		if (diskFile[driveNum] == null) return -1;
 		try {
-			byte[] bytes = new byte[length];
-			if (isWrite)
-			{
-				buf.rewind();
-				buf.get(bytes);
-				diskFile[driveNum].seek(start);
-				diskFile[driveNum].write(bytes);
-				return length;
-			}
-			else
-			{
-				diskFile[driveNum].seek(start);
-				int actualLength = diskFile[driveNum].read(bytes);
-				buf.rewind();
-				buf.put(bytes);
-				//Log.v(TAG, "Read " + actualLength + " bytes from drive number " + driveNum + ".");
-				return actualLength;
-			}
+			return diskFile[driveNum].transfer(isWrite, buf, start & 0xFFFFFFFFL, length);
 		} catch (Exception x) {
-			Log.e(TAG, "Failed to read " + length + " bytes from drive number " + driveNum + ".");
+			Log.e(TAG, "Failed to " + (isWrite ? "write " : "read ") + length + " bytes from drive number " + driveNum + ".");
 			return -1;
 		}
 	}
@@ -262,11 +406,14 @@ public class Core {
 	public int sonyEject(int driveNum, boolean deleteit) {
 		if (diskFile[driveNum] == null) return -1;
 		int ret;
-		try {
-			diskFile[driveNum].close();
-			ret = 0;
-		} catch (Exception x) {
-			ret = -1;
+		synchronized (diskFile) {
+			try {
+				diskFile[driveNum].close();
+				ret = 0;
+			} catch (Exception x) {
+				ret = -1;
+			}
+			diskFile[driveNum] = null;
 		}
 
 		String path = diskPath[driveNum];
@@ -276,7 +423,6 @@ public class Core {
 		}
 
 		mOnDiskEventListener.onDiskEjected(diskPath[driveNum]);
-		diskFile[driveNum] = null;
 		diskPath[driveNum] = null;
 		numInsertedDisks--;
 		
@@ -330,25 +476,40 @@ public class Core {
 			mOnAlertListener.onAlert(R.string.errTooManyDisks, false);
 			return false;
 		}
-		
+		return insertDisk(f, driveNum);
+	}
+
+	private boolean insertDisk(File f, int driveNum) {
 		// check for file
 		if (!f.isFile()) return false;
 		
 		// check permissions
-		String mode = "r";
 		if (!f.canRead()) return false;
-		if (f.canWrite()) mode = "rw";
+		boolean readOnly = !f.canWrite();
 		
 		// open file
 		try {
-			diskFile[driveNum] = new RandomAccessFile(f, mode);
+			if (OverlayDisk.isOverlay(f)) {
+				// read and written here, so writes only ever reach the overlay
+				diskFile[driveNum] = new OverlayDisk(f, readOnly);
+			} else if (mMapDisks && MappedDisk.canMap(f)) {
+				MappedDisk disk = new MappedDisk(f, readOnly);
+				diskFile[driveNum] = disk;
+				notifyDiskMapped(driveNum, disk.getBuffer(), !readOnly);
+			} else if (mDiskCacheSizeKB > 0) {
+				diskFile[driveNum] = new DiskCache(f, readOnly, mDiskCacheSizeKB);
+			} else {
+				NativeDisk disk = new NativeDisk(f, driveNum, readOnly);
+				diskFile[driveNum] = disk;
+				notifyDiskOpened(driveNum, disk.detachFd(), !readOnly);
+			}
 		} catch (Exception x) {
 			diskFile[driveNum] = null;
 			return false;
 		}
 		
 		// insert disk
-		notifyDiskInserted(driveNum, !f.canWrite());
+		notifyDiskInserted(driveNum, readOnly);
 		diskPath[driveNum] = f.getAbsolutePath();
 		numInsertedDisks++;
 		mOnDiskEventListener.onDiskInserted(f.getAbsolutePath());
@@ -363,6 +524,11 @@ public class Core {
         File f = FileManager.getInstance().getDisksFile(filename);
         return insertDisk(f);
     }
+
+	// called while loading a state, to put back a disk it was saved with
+	public boolean sonyInsertAt(String path, int driveNum) {
+		return insertDisk(new File(path), driveNum);
+	}
 	
 	public boolean hasDisksInserted() {
 		return numInsertedDisks > 0;
@@ -380,7 +546,7 @@ public class Core {
 	}
 
 	interface OnUpdateScreenListener {
-		void onUpdateScreen(int[] update, int top, int left, int bottom, int right);
+		void onUpdateScreen(int[] screen, int top, int left, int bottom, int right);
 	}
 
 	interface OnDiskEventListener {
@@ -0,0 +1,171 @@
+package name.osher.gil.minivmac;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-back block cache in front of a disk image file.
+ *
+ * Blocks are kept in LRU order. Writes only mark a block dirty, and a
+ * background thread writes dirty blocks back to the image shortly after.
+ */
+public class DiskCache implements IDiskImage {
+	private static final String TAG = "minivmac.DiskCache";
+
+	public static final int BLOCK_SIZE = 4096;
+	private static final long FLUSH_DELAY_MS = 1000;
+
+	private static final ScheduledExecutorService mFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "DiskFlushThread");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final long mLength;
+	private final int mMaxBlocks;
+	private final LinkedHashMap<Long, Block> mBlocks;
+	private boolean mFlushScheduled = false;
+
+	private static class Block {
+		final byte[] data = new byte[BLOCK_SIZE];
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+		long position;
+		int length;
+		boolean dirty;
+	}
+
+	public DiskCache(File f, boolean readOnly, int cacheSizeKB) throws IOException {
+		mFile = new RandomAccessFile(f, readOnly ? "r" : "rw");
+		mChannel = mFile.getChannel();
+		mLength = mFile.length();
+		mMaxBlocks = Math.max(1, cacheSizeKB * 1024 / BLOCK_SIZE);
+		mBlocks = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	@Override
+	public long length() {
+		return mLength;
+	}
+
+	@Override
+	public synchronized int transfer(boolean isWrite, ByteBuffer buf, long start, int length) throws IOException {
+		if (start >= mLength) return isWrite ? -1 : 0;
+		if (start + length > mLength) length = (int)(mLength - start);
+
+		buf.rewind();
+		buf.limit(length);
+
+		int done = 0;
+		while (done < length) {
+			long pos = start + done;
+			Block block = getBlock(pos - (pos % BLOCK_SIZE));
+			int offset = (int)(pos - block.position);
+			int n = Math.min(length - done, block.length - offset);
+			if (n <= 0) break;
+			if (isWrite) {
+				buf.get(block.data, offset, n);
+				block.dirty = true;
+			} else {
+				buf.put(block.data, offset, n);
+			}
+			done += n;
+		}
+
+		if (isWrite) scheduleFlush();
+		return done;
+	}
+
+	private Block getBlock(long position) throws IOException {
+		Block block = mBlocks.get(position);
+		if (block != null) return block;
+
+		if (mBlocks.size() >= mMaxBlocks) {
+			// reuse the least recently used block
+			Iterator<Block> it = mBlocks.values().iterator();
+			block = it.next();
+			if (block.dirty) writeBlock(block);
+			it.remove();
+		} else {
+			block = new Block();
+		}
+
+		block.position = position;
+		block.length = (int)Math.min(BLOCK_SIZE, mLength - position);
+		block.dirty = false;
+		block.buffer.clear().limit(block.length);
+		while (block.buffer.hasRemaining()) {
+			if (mChannel.read(block.buffer, position + block.buffer.position()) <= 0) break;
+		}
+		mBlocks.put(position, block);
+		return block;
+	}
+
+	private void writeBlock(Block block) throws IOException {
+		block.buffer.clear().limit(block.length);
+		while (block.buffer.hasRemaining()) {
+			mChannel.write(block.buffer, block.position + block.buffer.position());
+		}
+		block.dirty = false;
+	}
+
+	private synchronized void scheduleFlush() {
+		if (mFlushScheduled) return;
+		mFlushScheduled = true;
+		mFlusher.schedule(this::flushDirty, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private void flushDirty() {
+		List<Block> dirty = new ArrayList<>();
+		synchronized (this) {
+			mFlushScheduled = false;
+			for (Block block : mBlocks.values()) {
+				if (block.dirty) dirty.add(block);
+			}
+		}
+		// lock per block, so the emulation thread only ever waits for a single block write
+		for (Block block : dirty) {
+			synchronized (this) {
+				if (!block.dirty || !mChannel.isOpen()) continue;
+				try {
+					writeBlock(block);
+				} catch (IOException x) {
+					Log.e(TAG, "Failed to write back block at " + block.position + ".", x);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all dirty blocks back to the image, on the calling thread.
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		for (Block block : mBlocks.values()) {
+			if (block.dirty) writeBlock(block);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mBlocks.clear();
+			mFile.close();
+		}
+	}
+}
@@ -51,6 +51,11 @@ public class DiskManagerActivity extends AppCompatActivity {
         _adapter = new DisksListAdapter(this);
         list.setAdapter(_adapter);
         list.setOnItemClickListener((parent, view, position, id) -> _adapter.setSelectedIndex(position));
+        list.setOnItemLongClickListener((parent, view, position, id) -> {
+            _adapter.setSelectedIndex(position);
+            showOverlayDialog(position);
+            return true;
+        });
 
         newDisk.setOnClickListener(v -> showNewDiskDialog());
         importDisk.setOnClickListener(v -> showOpenFileDialog());
@@ -156,6 +161,70 @@ public class DiskManagerActivity extends AppCompatActivity {
         }
     }
 
+    private void showOverlayDialog(int selectedDiskImage) {
+        DiskImage di;
+        try {
+            di = _adapter.getItem(selectedDiskImage);
+        } catch (IndexOutOfBoundsException ex) {
+            Log.e(TAG, String.format("showOverlayDialog: Invalid position %d", selectedDiskImage), ex);
+            return;
+        }
+
+        AlertDialog.Builder alert = new AlertDialog.Builder(this);
+        alert.setTitle(di.getName());
+        alert.setCancelable(true);
+        if (OverlayDisk.isOverlay(di.getFile())) {
+            alert.setItems(new CharSequence[] {getString(R.string.resetOverlay)},
+                    (dialog, which) -> resetOverlayDialog(di));
+        } else {
+            alert.setItems(new CharSequence[] {getString(R.string.newOverlay)},
+                    (dialog, which) -> makeOverlay(di));
+        }
+        AlertDialog d = alert.create();
+        d.show();
+    }
+
+    private void makeOverlay(DiskImage diskImage) {
+        try {
+            FileManager.getInstance().makeOverlayDisk(diskImage.getFile());
+        } catch (Exception ex) {
+            Log.e(TAG, "makeOverlay: Failed for " + diskImage.getFile(), ex);
+            showErrorDialog(String.format(getString(R.string.cantMakeOverlay), diskImage.toString()));
+        }
+
+        refreshDisksList();
+    }
+
+    private void resetOverlayDialog(DiskImage diskImage) {
+        AlertDialog.Builder alert = new AlertDialog.Builder(this);
+        alert.setMessage(String.format(getString(R.string.resetOverlayWarning), diskImage.toString()));
+        alert.setCancelable(true);
+        alert.setPositiveButton(R.string.btn_yes, (dialog, which) -> resetOverlay(diskImage));
+        alert.setNegativeButton(R.string.btn_no, null);
+        AlertDialog d = alert.create();
+        d.show();
+    }
+
+    private void resetOverlay(DiskImage diskImage) {
+        try {
+            FileManager.getInstance().resetOverlayDisk(diskImage.getFile());
+        } catch (Exception ex) {
+            Log.e(TAG, "resetOverlay: Failed for " + diskImage.getFile(), ex);
+            showErrorDialog(String.format(getString(R.string.cantResetOverlay), diskImage.toString()));
+        }
+
+        refreshDisksList();
+    }
+
+    private void showErrorDialog(String message) {
+        AlertDialog.Builder alert = new AlertDialog.Builder(this);
+        alert.setMessage(message);
+        alert.setCancelable(true);
+        alert.setNeutralButton(R.string.btn_ok, null);
+        AlertDialog d = alert.create();
+        d.show();
+    }
+
     private void removeDisk(DiskImage diskImage) {
         try {
             FileManager.getInstance().delete(diskImage.getFile());
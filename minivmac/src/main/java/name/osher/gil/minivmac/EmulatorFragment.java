@@ -29,6 +29,7 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.view.MenuCompat;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
@@ -41,6 +42,7 @@ import java.util.List;
 public class EmulatorFragment extends Fragment
         implements IOnIOEventListener {
     private static final String TAG = "minivmac.EmulatorFrag";
+    private static final String RESUME_STATE = "resume.state";
 
     private final static int[] keycodeTranslationTable = {-1, -1, -1, -1, -1, -1, -1, 0x1D, 0x12, 0x13, 0x14, 0x15, 0x17, 0x16, 0x1A, 0x1C, 0x19, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0x00, 0x0B, 0x08, 0x02, 0x0E, 0x03, 0x05, 0x04, 0x22, 0x26, 0x28, 0x25, 0x2E, 0x2D, 0x1F, 0x23, 0x0C, 0x0F, 0x01, 0x11, 0x20, 0x09, 0x0D, 0x07, 0x10, 0x06, 0x2B, 0x2F, 0x37, 0x37, 0x38, 0x38, 0x30, 0x31, 0x3A, -1, -1, 0x24, 0x33, 0x32, 0x1B, 0x18, 0x21, 0x1E, 0x2A, 0x29, 0x27, 0x2C, 0x37, 0x3A, -1, -1, 0x45, -1, -1, 0x3A, -1, -1, -1, -1, -1, -1, -1};
     private final static int TRACKBALL_SENSITIVITY = 8;
@@ -118,6 +120,9 @@ public class EmulatorFragment extends Fragment
 
         requireActivity().invalidateOptionsMenu();
 
+        // kept up to date while running, so there if the app was killed
+        final File resumeState = FileManager.getInstance().getStatesFile(RESUME_STATE);
+
         Thread emulation = new Thread(() -> {
             mCore = new Core();
 
@@ -136,7 +141,10 @@ public class EmulatorFragment extends Fragment
                 }
             });
 
-            mCore.setOnUpdateScreenListener((update, top, left, bottom, right) -> mUIHandler.post(() -> mScreenView.updateScreen(update, top, left, bottom, right)));
+            mCore.setOnUpdateScreenListener((screen, top, left, bottom, right) -> mUIHandler.post(() -> {
+                mScreenView.updateScreen(screen, top, left, bottom, right);
+                Core.screenUpdateDone();
+            }));
 
             mCore.setOnDiskEventListener(new Core.OnDiskEventListener() {
 
@@ -190,7 +198,7 @@ public class EmulatorFragment extends Fragment
                 }
             });
 
-            mCore.initEmulation(requireContext().getString(R.string.moduleName), rom);
+            mCore.initEmulation(requireContext().getString(R.string.moduleName), rom, resumeState);
             System.exit(0);
         });
         mEmulatorStarted = true;
@@ -312,13 +320,7 @@ public class EmulatorFragment extends Fragment
         }
 
         private Keyboard.Key getKey(int primaryCode) {
-            List<Keyboard.Key> keys = mKeyboardView.getKeyboard().getKeys();
-            for (Keyboard.Key key : keys) {
-                if (key.codes.length > 0 && key.codes[0] == primaryCode) {
-                    return key;
-                }
-            }
-            return null;
+            return findKey(mKeyboardView.getKeyboard(), primaryCode);
         }
 
         public void setShifted(boolean shiftState) {
@@ -344,6 +346,11 @@ public class EmulatorFragment extends Fragment
         mScreenView.setScaled(scalePref);
         mScreenView.setScroll(scrollPref);
 
+        String diskCachePref = sharedPref.getString(SettingsFragment.KEY_PREF_DISK_CACHE, "0");
+        Core.setDiskCacheSize(Integer.parseInt(diskCachePref));
+        Core.setMapDisks(sharedPref.getBoolean(SettingsFragment.KEY_PREF_DISK_MAP, false));
+        Core.setIdleSleep(sharedPref.getBoolean(SettingsFragment.KEY_PREF_IDLE_SLEEP, true));
+
         String newLang = sharedPref.getString(SettingsFragment.KEY_PREF_KEYBOARDS, "us");
         if (!newLang.equals(mLang)) {
             mLang = newLang;
@@ -355,6 +362,10 @@ public class EmulatorFragment extends Fragment
     public void onPause () {
         if (mCore != null) {
             mCore.pauseEmulation();
+            if (mCore.hasDisksInserted()) {
+                // written in the background, so pausing doesn't wait for the disk
+                mCore.queueSaveState(FileManager.getInstance().getStatesFile(RESUME_STATE));
+            }
         }
 
         super.onPause();
@@ -431,6 +442,17 @@ public class EmulatorFragment extends Fragment
         return keycodeTranslationTable[keyCode];
     }
 
+    @VisibleForTesting
+    static Keyboard.Key findKey(Keyboard keyboard, int primaryCode) {
+        List<Keyboard.Key> keys = keyboard.getKeys();
+        for (Keyboard.Key key : keys) {
+            if (key.codes.length > 0 && key.codes[0] == primaryCode) {
+                return key;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void onConfigurationChanged(@NonNull Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
@@ -463,6 +485,7 @@ public class EmulatorFragment extends Fragment
             m.setEnabled(mCore == null || !mCore.isDiskInserted(disks[i]));
             m.setIcon(R.drawable.ic_disk_floppy);
         }
+        menu.findItem(R.id.action_turbo).setChecked(Core.isInitialized() && Core.isTurbo());
     }
 
     public boolean onOptionsItemSelected (MenuItem item) {
@@ -483,6 +506,11 @@ public class EmulatorFragment extends Fragment
             case R.id.action_keyboard:
                 toggleKeyboard();
                 break;
+            case R.id.action_turbo:
+                if (Core.isInitialized()) {
+                    Core.setTurbo(!Core.isTurbo());
+                }
+                break;
             case R.id.action_manage_disks:
                 showDiskManager();
                 break;
@@ -7,6 +7,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
@@ -14,24 +15,28 @@ import android.webkit.MimeTypeMap;
 import androidx.annotation.Nullable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by dolfin on 16/12/2015.
  */
 public class FileManager {
     private static final String TAG = "minivmac.FileManager";
-    private static final String[] diskExtensions = {"DSK", "dsk", "img", "IMG"};
+    private static final String[] diskExtensions = {"DSK", "dsk", "img", "IMG", OverlayDisk.EXTENSION};
 
     private static final String DIRECTORY_ROM = "rom";
     private static final String DIRECTORY_DISKS = "disks";
     private static final String DIRECTORY_DOWNLOADS = "downloads";
+    private static final String DIRECTORY_STATES = "states";
 
-    private static final int ZERO_BUFFER_SIZE = 2048;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final long COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_NS = 100 * 1000 * 1000; // ten updates a second at most
 
     private static final FileManager mInstance = new FileManager();
     private boolean mIsInitialized = false;
@@ -39,6 +44,7 @@ public class FileManager {
     private File mRomDir;
     private File mDisksDir;
     private File mDownloadDir;
+    private File mStatesDir;
     private ContentResolver mContentResolver;
 
     private FileManager() { }
@@ -61,11 +67,13 @@ public class FileManager {
         mRomDir = new File(dataDir, DIRECTORY_ROM);
         mDisksDir = new File(dataDir, DIRECTORY_DISKS);
         mDownloadDir = new File(mCacheDir, DIRECTORY_DOWNLOADS);
+        mStatesDir = new File(dataDir, DIRECTORY_STATES);
         if (dataDir.isDirectory() && dataDir.canRead() &&
                 mCacheDir.isDirectory() && mCacheDir.canRead()) {
             mRomDir.mkdirs();
             mDisksDir.mkdirs();
             mDownloadDir.mkdirs();
+            mStatesDir.mkdirs();
             mIsInitialized = true;
             return true;
         }
@@ -96,6 +104,12 @@ public class FileManager {
     public File getDownloadDir() {
         return mDownloadDir;
     }
+    public File getStatesFile(String name) {
+        return new File(mStatesDir, name);
+    }
+    public File getStatesDir() {
+        return mStatesDir;
+    }
 
     public Boolean isInCache(String path) {
         return path.contains(mCacheDir.getAbsolutePath());
@@ -135,34 +149,16 @@ public class FileManager {
             return false;
         }
 
-        FileOutputStream writer;
-        try {
-            writer = new FileOutputStream(disk);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            handleError(disk, R.string.errGeneral, progressHandler);
+        // the file is not written, so make sure the emulated program can fill it later
+        if (disk.getParentFile().getUsableSpace() < size) {
+            handleError(disk, R.string.errCreateDisk, progressHandler);
             return false;
         }
 
-        byte[] buffer = new byte[ZERO_BUFFER_SIZE];
-        for (int i = 0 ; i < ZERO_BUFFER_SIZE ; i++)
-            buffer[i] = 0;
-
-        try {
-            int sizeLeft = size;
-            while (sizeLeft > 0) {
-                int i = Math.min(sizeLeft, ZERO_BUFFER_SIZE);
-                writer.write(buffer, 0, i);
-                sizeLeft -= i;
-
-                if (progressHandler != null) {
-                    Message msg = progressHandler.obtainMessage();
-                    msg.arg1 = (int) (99.0 * (size - sizeLeft) / size);
-                    progressHandler.sendMessage(msg);
-                }
-            }
-
-            writer.close();
+        // extending the file reads as zeros, and takes no time or space where the file system
+        // keeps sparse files, so this doesn't block the emulation thread for disks the guest makes
+        try (RandomAccessFile file = new RandomAccessFile(disk, "rw")) {
+            file.setLength(size);
         } catch (IOException e) {
             handleError(disk, R.string.errCreateDisk, progressHandler);
             return false;
@@ -178,6 +174,26 @@ public class FileManager {
         return true;
     }
 
+    /**
+     * Makes a new overlay disk on top of base, named after it, and returns it.
+     */
+    public File makeOverlayDisk(File base) throws IOException {
+        String name = base.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+
+        File overlay = new File(base.getParentFile(), name + "." + OverlayDisk.EXTENSION);
+        for (int i = 2; overlay.exists(); i++) {
+            overlay = new File(base.getParentFile(), name + " " + i + "." + OverlayDisk.EXTENSION);
+        }
+        OverlayDisk.create(overlay, base);
+        return overlay;
+    }
+
+    public void resetOverlayDisk(File overlay) throws IOException {
+        OverlayDisk.reset(overlay);
+    }
+
     public void copy(InputStream in, File dst) throws IOException {
         copy(in, dst, null);
     }
@@ -192,26 +208,59 @@ public class FileManager {
             dst.deleteOnExit();
         }
 
-        try (OutputStream out = new FileOutputStream(dst)) {
-            // Transfer bytes from in to out
-            byte[] buf = new byte[ZERO_BUFFER_SIZE];
-            int len;
-            long totalBytesCopied = 0;
-            long fileSize = in.available();
-
-            while ((len = in.read(buf)) > 0) {
-                out.write(buf, 0, len);
-
-                totalBytesCopied += len;
-                int progress = (int) totalBytesCopied;
-
-                if (callback != null) {
-                    callback.onProgressUpdated(progress);
+        try (FileOutputStream out = new FileOutputStream(dst)) {
+            FileChannel dstChannel = out.getChannel();
+            FileChannel srcChannel = getFileChannel(in);
+            long copied = 0;
+            long lastProgress = System.nanoTime();
+
+            if (srcChannel != null) {
+                // the kernel moves the bytes, in chunks only so there is progress to report
+                long n;
+                while ((n = dstChannel.transferFrom(srcChannel, copied, COPY_CHUNK_SIZE)) > 0) {
+                    copied += n;
+                    lastProgress = updateProgress(callback, copied, lastProgress);
                 }
+            } else {
+                byte[] buf = new byte[COPY_BUFFER_SIZE];
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    out.write(buf, 0, len);
+                    copied += len;
+                    lastProgress = updateProgress(callback, copied, lastProgress);
+                }
+            }
+
+            if (callback != null) {
+                callback.onProgressUpdated((int) Math.min(copied, Integer.MAX_VALUE));
             }
         }
     }
 
+    // the channel of a stream that reads a whole regular file, null for pipes and anything else.
+    // An AssetFileDescriptor.AutoCloseInputStream is a subclass that reads only part of its fd,
+    // which the channel knows nothing about, so only these exact classes are taken.
+    @Nullable
+    private static FileChannel getFileChannel(InputStream in) {
+        if (in.getClass() != FileInputStream.class
+                && in.getClass() != ParcelFileDescriptor.AutoCloseInputStream.class) return null;
+        FileChannel channel = ((FileInputStream) in).getChannel();
+        try {
+            if (channel.position() != 0) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return channel;
+    }
+
+    private static long updateProgress(IProgressCallback callback, long copied, long lastProgress) {
+        if (callback == null) return lastProgress;
+        long now = System.nanoTime();
+        if (now - lastProgress < PROGRESS_INTERVAL_NS) return lastProgress;
+        callback.onProgressUpdated((int) Math.min(copied, Integer.MAX_VALUE));
+        return now;
+    }
+
     public void delete(File file) {
         file.delete();
     }
@@ -234,6 +283,25 @@ public class FileManager {
         return result;
     }
 
+    /**
+     * The size the content provider reports for uri, or -1 if it doesn't know.
+     */
+    public long getFileSize(Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return new File(uri.getPath()).length();
+        }
+        long result = -1;
+        try (Cursor cursor = mContentResolver.query(uri, new String[] {OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int column = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (column != -1 && !cursor.isNull(column)) {
+                    result = cursor.getLong(column);
+                }
+            }
+        }
+        return result;
+    }
+
     public String getMimeType(Uri uri) {
         String mimeType;
         if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
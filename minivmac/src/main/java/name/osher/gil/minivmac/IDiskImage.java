@@ -0,0 +1,11 @@
+package name.osher.gil.minivmac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface IDiskImage {
+    long length();
+    int transfer(boolean isWrite, ByteBuffer buf, long start, int length) throws IOException;
+    void flush() throws IOException;
+    void close() throws IOException;
+}
@@ -0,0 +1,84 @@
+package name.osher.gil.minivmac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Disk image mapped completely into memory.
+ *
+ * The mapping is handed to the native side, which copies sectors
+ * directly between emulated RAM and the mapped region.
+ */
+public class MappedDisk implements IDiskImage {
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mBuffer;
+	private final boolean mReadOnly;
+
+	public MappedDisk(File f, boolean readOnly) throws IOException {
+		mReadOnly = readOnly;
+		mFile = new RandomAccessFile(f, readOnly ? "r" : "rw");
+		try {
+			FileChannel channel = mFile.getChannel();
+			mBuffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+					0, channel.size());
+		} catch (IOException x) {
+			mFile.close();
+			throw x;
+		}
+	}
+
+	public static boolean canMap(File f) {
+		return f.length() <= Integer.MAX_VALUE;
+	}
+
+	public ByteBuffer getBuffer() {
+		return mBuffer;
+	}
+
+	public boolean isReadOnly() {
+		return mReadOnly;
+	}
+
+	@Override
+	public long length() {
+		return mBuffer.capacity();
+	}
+
+	@Override
+	public synchronized int transfer(boolean isWrite, ByteBuffer buf, long start, int length) {
+		if (start >= mBuffer.capacity()) return isWrite ? -1 : 0;
+		if (isWrite && mReadOnly) return -1;
+		length = (int)Math.min(length, mBuffer.capacity() - start);
+
+		ByteBuffer region = mBuffer.duplicate();
+		region.position((int)start).limit((int)start + length);
+		buf.rewind();
+		buf.limit(length);
+		if (isWrite) {
+			region.put(buf);
+		} else {
+			buf.put(region);
+		}
+		return length;
+	}
+
+	@Override
+	public void flush() {
+		if (!mReadOnly) {
+			mBuffer.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mFile.close();
+		}
+	}
+}
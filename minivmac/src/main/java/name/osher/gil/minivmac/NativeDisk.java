@@ -0,0 +1,60 @@
+package name.osher.gil.minivmac;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Disk image read and written by the native side.
+ *
+ * The file descriptor is detached and handed over to the native code,
+ * which does pread/pwrite on it and closes it on eject. Java is only
+ * told about the eject afterwards.
+ */
+public class NativeDisk implements IDiskImage {
+	private final int mDriveNum;
+	private final long mLength;
+	private ParcelFileDescriptor mFile;
+
+	public NativeDisk(File f, int driveNum, boolean readOnly) throws IOException {
+		mDriveNum = driveNum;
+		mLength = f.length();
+		mFile = ParcelFileDescriptor.open(f, readOnly ? ParcelFileDescriptor.MODE_READ_ONLY :
+				ParcelFileDescriptor.MODE_READ_WRITE);
+	}
+
+	/**
+	 * Gives up ownership of the file descriptor, the caller must close it.
+	 */
+	public int detachFd() {
+		int fd = mFile.detachFd();
+		mFile = null;
+		return fd;
+	}
+
+	@Override
+	public long length() {
+		return mLength;
+	}
+
+	@Override
+	public int transfer(boolean isWrite, ByteBuffer buf, long start, int length) {
+		// transfers never reach Java, the native side reads the descriptor itself
+		return -1;
+	}
+
+	@Override
+	public void flush() {
+		Core.syncDisk(mDriveNum);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mFile != null) {
+			mFile.close();
+			mFile = null;
+		}
+	}
+}
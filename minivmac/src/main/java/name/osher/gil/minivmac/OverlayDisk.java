@@ -0,0 +1,299 @@
+package name.osher.gil.minivmac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Copy-on-write disk image on top of a read-only base image.
+ *
+ * The overlay file starts with a header naming the base image, which
+ * is looked up next to the overlay. It is followed by records of a
+ * block number and the block's contents, one for every block written
+ * so far. A block is appended the first time it is written and
+ * rewritten in place after that, so the overlay only ever grows by
+ * the blocks the emulated program changed. Everything else is read
+ * from the base, which can be shared by any number of overlays.
+ *
+ * Truncating the overlay to its header brings the disk back to the
+ * base, see {@link #reset(File)}.
+ */
+public class OverlayDisk implements IDiskImage {
+	public static final String EXTENSION = "ovl";
+	public static final int BLOCK_SIZE = 512;
+
+	private static final int MAGIC = 0x4D764F76; // 'MvOv'
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 512;
+	private static final int RECORD_SIZE = 4 + BLOCK_SIZE;
+
+	// overlays in a drive, they can't be reset under the emulated program
+	private static final HashSet<String> mOpen = new HashSet<>();
+
+	private final String mPath;
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final RandomAccessFile mBaseFile;
+	private final FileChannel mBaseChannel;
+	private final long mLength;
+	private final boolean mReadOnly;
+	// block number to record number
+	private final HashMap<Integer, Integer> mIndex = new HashMap<>();
+	private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+	private int mNumRecords;
+
+	public OverlayDisk(File f, boolean readOnly) throws IOException {
+		mPath = f.getAbsolutePath();
+		synchronized (mOpen) {
+			if (!mOpen.add(mPath)) throw new IOException(f + " is already in use.");
+		}
+
+		RandomAccessFile file = null;
+		RandomAccessFile baseFile = null;
+		try {
+			file = new RandomAccessFile(f, readOnly ? "r" : "rw");
+			Header header = readHeader(file.getChannel());
+			File base = getBase(f, header.baseName);
+			baseFile = new RandomAccessFile(base, "r");
+			if (baseFile.length() != header.baseLength) {
+				throw new IOException(base + " is not the image " + f + " was made from.");
+			}
+			mFile = file;
+			mChannel = file.getChannel();
+			mBaseFile = baseFile;
+			mBaseChannel = baseFile.getChannel();
+			mLength = header.baseLength;
+			mReadOnly = readOnly;
+			readIndex();
+		} catch (IOException x) {
+			if (baseFile != null) baseFile.close();
+			if (file != null) file.close();
+			synchronized (mOpen) {
+				mOpen.remove(mPath);
+			}
+			throw x;
+		}
+	}
+
+	/**
+	 * Makes a new, empty overlay on top of base. The base is made read-only,
+	 * since changing it would change every overlay made from it.
+	 */
+	public static void create(File f, File base) throws IOException {
+		if (isOverlay(base)) throw new IOException(base + " is an overlay itself.");
+		if (!base.getAbsoluteFile().getParentFile().equals(f.getAbsoluteFile().getParentFile())) {
+			throw new IOException(f + " has to be next to " + base + ".");
+		}
+		byte[] name = base.getName().getBytes(StandardCharsets.UTF_8);
+		if (name.length > HEADER_SIZE - 24) {
+			throw new IOException("The name of " + base + " is too long.");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(BLOCK_SIZE);
+		header.putLong(base.length());
+		header.putInt(name.length);
+		header.put(name);
+		header.rewind();
+
+		if (!f.createNewFile()) throw new IOException(f + " already exists.");
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			FileChannel channel = file.getChannel();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		} catch (IOException x) {
+			f.delete();
+			throw x;
+		}
+		base.setReadOnly();
+	}
+
+	/**
+	 * Drops all the blocks written to the overlay, so it reads the same as its base again.
+	 */
+	public static void reset(File f) throws IOException {
+		synchronized (mOpen) {
+			if (mOpen.contains(f.getAbsolutePath())) throw new IOException(f + " is in use.");
+			try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+				readHeader(file.getChannel());
+				file.setLength(HEADER_SIZE);
+			}
+		}
+	}
+
+	public static boolean isOverlay(File f) {
+		return f.getName().endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * The image the overlay was made from.
+	 */
+	public static File getBase(File f) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			return getBase(f, readHeader(file.getChannel()).baseName);
+		}
+	}
+
+	private static File getBase(File f, String baseName) {
+		return new File(f.getAbsoluteFile().getParentFile(), baseName);
+	}
+
+	private static class Header {
+		long baseLength;
+		String baseName;
+	}
+
+	private static Header readHeader(FileChannel channel) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, buf.position()) < 0) throw new IOException("Not an overlay disk.");
+		}
+		buf.rewind();
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getInt() != BLOCK_SIZE) {
+			throw new IOException("Not an overlay disk.");
+		}
+		Header header = new Header();
+		header.baseLength = buf.getLong();
+		int nameLength = buf.getInt();
+		if (nameLength <= 0 || nameLength > buf.remaining()) throw new IOException("Not an overlay disk.");
+		byte[] name = new byte[nameLength];
+		buf.get(name);
+		header.baseName = new String(name, StandardCharsets.UTF_8);
+		return header;
+	}
+
+	private void readIndex() throws IOException {
+		// a record cut short by a crash was never acknowledged, so it is dropped
+		mNumRecords = (int)((mChannel.size() - HEADER_SIZE) / RECORD_SIZE);
+		ByteBuffer blockNum = ByteBuffer.allocate(4);
+		for (int i = 0; i < mNumRecords; i++) {
+			blockNum.clear();
+			while (blockNum.hasRemaining()) {
+				if (mChannel.read(blockNum, recordPosition(i) + blockNum.position()) < 0) {
+					throw new IOException("Overlay disk is cut short.");
+				}
+			}
+			mIndex.put(blockNum.getInt(0), i);
+		}
+		if (!mReadOnly && mChannel.size() != recordPosition(mNumRecords)) {
+			mChannel.truncate(recordPosition(mNumRecords));
+		}
+	}
+
+	private static long recordPosition(int record) {
+		return HEADER_SIZE + (long)record * RECORD_SIZE;
+	}
+
+	@Override
+	public long length() {
+		return mLength;
+	}
+
+	@Override
+	public synchronized int transfer(boolean isWrite, ByteBuffer buf, long start, int length) throws IOException {
+		if (start >= mLength) return isWrite ? -1 : 0;
+		if (isWrite && mReadOnly) return -1;
+		if (start + length > mLength) length = (int)(mLength - start);
+
+		buf.rewind();
+		buf.limit(length);
+
+		int done = 0;
+		while (done < length) {
+			long pos = start + done;
+			int blockNum = (int)(pos / BLOCK_SIZE);
+			int offset = (int)(pos % BLOCK_SIZE);
+			Integer record = mIndex.get(blockNum);
+			if (isWrite) {
+				int n = Math.min(length - done, BLOCK_SIZE - offset);
+				writeBlock(blockNum, record, buf, offset, n);
+				done += n;
+			} else if (record != null) {
+				int n = Math.min(length - done, BLOCK_SIZE - offset);
+				readFully(mChannel, buf, done + n, recordPosition(record) + 4 + offset);
+				done += n;
+			} else {
+				// read all the blocks up to the next written one from the base at once
+				int n = Math.min(length - done, BLOCK_SIZE - offset);
+				while (done + n < length && !mIndex.containsKey(blockNum + 1)) {
+					blockNum++;
+					n = Math.min(length - done, n + BLOCK_SIZE);
+				}
+				readFully(mBaseChannel, buf, done + n, pos);
+				done += n;
+			}
+		}
+		return done;
+	}
+
+	private void writeBlock(int blockNum, Integer record, ByteBuffer buf, int offset, int n) throws IOException {
+		mRecord.clear();
+		mRecord.putInt(blockNum);
+		if (n < BLOCK_SIZE) {
+			// only part of the block is written, start from what it holds now
+			long from = (record != null) ? recordPosition(record) + 4 : (long)blockNum * BLOCK_SIZE;
+			mRecord.limit(RECORD_SIZE);
+			readFully(record != null ? mChannel : mBaseChannel, mRecord, RECORD_SIZE, from);
+			mRecord.position(4 + offset);
+		}
+		int limit = buf.limit();
+		buf.limit(buf.position() + n);
+		mRecord.put(buf);
+		buf.limit(limit);
+
+		if (record == null) {
+			record = mNumRecords;
+		}
+		mRecord.rewind();
+		long position = recordPosition(record);
+		while (mRecord.hasRemaining()) {
+			mChannel.write(mRecord, position + mRecord.position());
+		}
+		if (record == mNumRecords) {
+			mIndex.put(blockNum, record);
+			mNumRecords++;
+		}
+	}
+
+	// reads into buf from its position up to limit, zero filling anything past the end of the file
+	private static void readFully(FileChannel channel, ByteBuffer buf, int limit, long position) throws IOException {
+		int oldLimit = buf.limit();
+		buf.limit(limit);
+		long offset = position - buf.position();
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) < 0) {
+				while (buf.hasRemaining()) buf.put((byte)0);
+			}
+		}
+		buf.limit(oldLimit);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (!mReadOnly) {
+			mChannel.force(false);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mIndex.clear();
+			mBaseFile.close();
+			mFile.close();
+			synchronized (mOpen) {
+				mOpen.remove(mPath);
+			}
+		}
+	}
+}
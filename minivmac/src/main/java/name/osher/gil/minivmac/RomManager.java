@@ -8,6 +8,8 @@ import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
+import androidx.annotation.VisibleForTesting;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,11 +52,9 @@ public class RomManager {
 
             InputStream romFile;
             InputStream romFileForValidation;
-            int fileSize;
             try {
                 romFile = context.getContentResolver().openInputStream(romUri);
                 romFileForValidation = context.getContentResolver().openInputStream(romUri);
-                fileSize = romFile.available();
             } catch (IOException ex) {
                 // Unable to open ROM file.
                 Log.e(TAG, String.format("Unable to open ROM file: %s", romUri), ex);
@@ -72,9 +72,8 @@ public class RomManager {
             ProgressDialog copyProgressDialog;
             copyProgressDialog = new ProgressDialog(context);
             copyProgressDialog.setCancelable(false);
-            copyProgressDialog.setIndeterminate(false);
             copyProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-            copyProgressDialog.setMax(fileSize);
+            Utils.setProgressMax(copyProgressDialog, FileManager.getInstance().getFileSize(romUri));
 
             ExecutorService executor = Executors.newSingleThreadExecutor();
             Handler handler = new Handler(Looper.getMainLooper());
@@ -162,7 +161,8 @@ public class RomManager {
         }
     }
 
-    private long calculateChecksum(InputStream romFile, IProgressCallback callback) throws IOException {
+    @VisibleForTesting
+    long calculateChecksum(InputStream romFile, IProgressCallback callback) throws IOException {
         long i;
         long calculatedChecksum = 0;
         long signatureChecksum = 0;
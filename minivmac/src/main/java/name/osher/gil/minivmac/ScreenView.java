@@ -6,6 +6,7 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.*;
@@ -62,16 +63,17 @@ public class ScreenView extends View {
 		setScaled(isScaled());
 	}
 	
-	public void updateScreen(int[] update, int top, int left, int bottom, int right) {
-		if (mScreenBits == null || update.length < 4) return;
+	public void updateScreen(int[] screen, int top, int left, int bottom, int right) {
+		if (mScreenBits == null || screen.length < mTargetScreenWidth * mTargetScreenHeight) return;
 		int width = right - left;
 		int height = bottom - top;
-		mScreenBits.setPixels(update, 0, width, left, top, width, height);
+		mScreenBits.setPixels(screen, top * mTargetScreenWidth + left, mTargetScreenWidth, left, top, width, height);
 		this.invalidate(translateScreenXCoord(left), translateScreenYCoord(top),
 				translateScreenXCoord(right), translateScreenYCoord(bottom));
 	}
 
-	private int translateScreenXCoord(int x) {
+	@VisibleForTesting
+	int translateScreenXCoord(int x) {
 		return (int)(x / (mSrcRect.right / (double) mDstRect.width())) + mDstRect.left;
 	}
 
@@ -22,6 +22,9 @@ public class SettingsFragment extends PreferenceFragmentCompat {
 	public static final String KEY_PREF_ROM = "pref_rom";
 	public static final String KEY_PREF_DISK_MANAGER = "pref_disk_manager";
 	public static final String KEY_PREF_KEYBOARDS = "pref_keyboards";
+	public static final String KEY_PREF_DISK_CACHE = "pref_disk_cache";
+	public static final String KEY_PREF_DISK_MAP = "pref_disk_map";
+	public static final String KEY_PREF_IDLE_SLEEP = "pref_idle_sleep";
 	public static final String KEY_PREF_SCALE = "pref_scale";
 	public static final String KEY_PREF_SCROLL = "pref_scroll";
 	public static final String KEY_PREF_SPEED = "pref_speed";
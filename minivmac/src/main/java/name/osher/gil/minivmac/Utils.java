@@ -76,14 +76,20 @@ public class Utils {
         context.startActivity(chooser);
     }
 
+    /**
+     * Sizes a progress bar for a copy of size bytes, a size below zero is unknown.
+     */
+    public static void setProgressMax(ProgressDialog progressDialog, long size) {
+        progressDialog.setIndeterminate(size < 0);
+        progressDialog.setMax((int) Math.min(Math.max(size, 0), Integer.MAX_VALUE));
+    }
+
     public static void loadFileWithProgressBar(Context context, Uri uri, IAsyncCopyCallback onSuccess) {
         if (uri != null) {
             Log.w(TAG, uri.toString());
             InputStream diskFile;
-            int fileSize;
             try {
                 diskFile = context.getContentResolver().openInputStream(uri);
-                fileSize = diskFile.available();
             } catch (IOException ex) {
                 // Unable to open Disk file.
                 Log.e(TAG, String.format("Unable to open file: %s", uri), ex);
@@ -94,9 +100,8 @@ public class Utils {
             progressDialog = new ProgressDialog(context);
             progressDialog.setTitle(R.string.copyingFile);
             progressDialog.setCancelable(false);
-            progressDialog.setIndeterminate(false);
             progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-            progressDialog.setMax(fileSize);
+            setProgressMax(progressDialog, FileManager.getInstance().getFileSize(uri));
 
             ExecutorService executor = Executors.newSingleThreadExecutor();
             Handler handler = new Handler(Looper.getMainLooper());
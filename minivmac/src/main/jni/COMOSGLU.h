@@ -93,6 +93,21 @@ GLOBALVAR ui3b SpeedValue = WantInitSpeedValue;
 GLOBALVAR blnr WantNotAutoSlow = (WantInitNotAutoSlow != 0);
 #endif
 
+#if EnableIdleSleep
+GLOBALVAR blnr WantIdleSleep = trueblnr;
+GLOBALVAR ui5r GuestPollCount = 0;
+#endif
+
+#if WantInstrCount
+GLOBALVAR ui5r InstructionsExecuted = 0;
+#endif
+
+#if WantGuestProfile
+GLOBALVAR blnr ProfileWant = falseblnr;
+GLOBALVAR blnr ProfileClear = falseblnr;
+GLOBALVAR GuestProfile TheProfile;
+#endif
+
 GLOBALVAR ui4b CurMouseV = 0;
 GLOBALVAR ui4b CurMouseH = 0;
 
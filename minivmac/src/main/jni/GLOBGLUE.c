@@ -1610,6 +1610,9 @@ GLOBALFUNC ui3p get_real_address0(ui5b L, blnr WritableMem, CPTR addr,
 		} else {
 			*actL = bankleft;
 		}
+		if (WritableMem) {
+			RAMDirty_Mark(p, *actL);
+		}
 	}
 
 	return p;
@@ -1760,3 +1763,117 @@ GLOBALPROC ICT_add(int taskid, ui5b n)
 		NextiCount = when;
 	}
 }
+
+/* dirty RAM pages */
+
+/*
+	RAMDirty has a byte for each page of RAM, with kRAMDirtySave
+	set when the page may have been written since RAMDirty_Clear
+	(and kRAMDirtyCode for the block cache). The emulated CPU marks
+	the page of every write (see SetUpMATCDirty in MINEM68K), and
+	devices writing memory through get_real_address0 get marked
+	there. This lets a save state copy only the pages written since
+	the last one.
+*/
+
+GLOBALVAR ui3b RAMDirty[kRAMDirtyNumPages + kRAMDirtyNumSpare];
+
+GLOBALPROC RAMDirty_Mark(ui3p p, ui5r L)
+{
+	if ((p >= RAM) && (p < RAM + kRAM_Size) && (0 != L)) {
+		ui5r i0 = (p - RAM) >> ln2RAMDirtyPageSz;
+		ui5r i1 = (p - RAM + L - 1) >> ln2RAMDirtyPageSz;
+		ui5r i;
+
+		if (i1 >= kRAMDirtyNumPages) {
+			i1 = kRAMDirtyNumPages - 1;
+		}
+		for (i = i0; i <= i1; ++i) {
+			RAMDirty[i] = kRAMDirtyAll;
+		}
+	}
+}
+
+GLOBALPROC RAMDirty_SetAll(void)
+{
+	ui5r i;
+
+	for (i = 0; i < kRAMDirtyNumPages; ++i) {
+		RAMDirty[i] = kRAMDirtyAll;
+	}
+}
+
+GLOBALPROC RAMDirty_Clear(void)
+{
+	ui5r i;
+
+	for (i = 0; i < kRAMDirtyNumPages; ++i) {
+		RAMDirty[i] &= ~ kRAMDirtySave;
+	}
+}
+
+/* save states */
+
+/*
+	Each part of the emulated machine has a StateIO procedure that
+	passes every variable making up its state to State_Bytes, in
+	a fixed order. The same procedures write a state, read it back
+	(when StateLoading), and, with no buffer, just count the bytes,
+	so there is only one list of what is in a state to keep up to
+	date. Only called between ticks, from the emulation thread.
+*/
+
+GLOBALVAR blnr StateLoading = falseblnr;
+LOCALVAR ui3p StateP = nullpr;
+LOCALVAR ui5r StateN;
+
+GLOBALPROC State_Begin(ui3p p, blnr Loading)
+{
+	StateP = p;
+	StateN = 0;
+	StateLoading = Loading;
+}
+
+GLOBALFUNC ui5r State_End(void)
+{
+	StateP = nullpr;
+	StateLoading = falseblnr;
+
+	return StateN;
+}
+
+GLOBALPROC State_Bytes(anyp p, ui5r n)
+{
+	if (nullpr != StateP) {
+		if (StateLoading) {
+			MyMoveBytes((anyp)(StateP + StateN), p, n);
+		} else {
+			MyMoveBytes(p, (anyp)(StateP + StateN), n);
+		}
+	}
+	StateN += n;
+}
+
+GLOBALPROC Memory_StateIO(void)
+{
+	State_Var(Wires);
+	/* RAM is saved by pages, see RAMDirty */
+#if IncludeVidMem
+	State_Bytes((anyp)VidMem, kVidMemRAM_Size);
+#endif
+	State_Var(ICTactive);
+	State_Var(ICTwhen);
+	State_Var(NextiCount);
+	State_Var(CurIPL);
+	State_Var(InterruptButton);
+#if HaveMasterMyEvtQLock
+	State_Var(MasterMyEvtQLock);
+#endif
+	State_Var(my_disk_icon_addr);
+	State_Var(ParamAddrHi);
+
+	if (StateLoading) {
+		/* MemOverlay and Addr32 are wires */
+		SetUpMemBanks();
+	}
+}
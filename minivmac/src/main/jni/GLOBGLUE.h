@@ -74,6 +74,7 @@ EXPORTFUNC ui3p get_real_address0(ui5b L, blnr WritableMem, CPTR addr,
 	memory access routines that can use when have address
 	that is known to be in RAM (and that is in the first
 	copy of the ram, not the duplicates, i.e. < kRAM_Size).
+	Writes mark their page in RAMDirty, like those of the cpu.
 */
 
 #ifndef ln2mtb
@@ -82,9 +83,12 @@ EXPORTFUNC ui3p get_real_address0(ui5b L, blnr WritableMem, CPTR addr,
 #define get_ram_word(addr) do_get_mem_word((addr) + RAM)
 #define get_ram_long(addr) do_get_mem_long((addr) + RAM)
 
-#define put_ram_byte(addr, b) do_put_mem_byte((addr) + RAM, (b))
-#define put_ram_word(addr, w) do_put_mem_word((addr) + RAM, (w))
-#define put_ram_long(addr, l) do_put_mem_long((addr) + RAM, (l))
+#define put_ram_byte(addr, b) (do_put_mem_byte((addr) + RAM, (b)), \
+	RAMDirty_Mark((addr) + RAM, 1))
+#define put_ram_word(addr, w) (do_put_mem_word((addr) + RAM, (w)), \
+	RAMDirty_Mark((addr) + RAM, 2))
+#define put_ram_long(addr, l) (do_put_mem_long((addr) + RAM, (l)), \
+	RAMDirty_Mark((addr) + RAM, 4))
 
 #else
 
@@ -187,6 +191,38 @@ EXPORTVAR(iCountt, NextiCount)
 
 EXPORTVAR(ui3b, Wires[kNumWires])
 
+/* dirty RAM pages */
+
+#define ln2RAMDirtyPageSz 12
+#define kRAMDirtyPageSz (1UL << ln2RAMDirtyPageSz)
+#define kRAMDirtyNumPages (kRAM_Size >> ln2RAMDirtyPageSz)
+#define kRAMDirtyNumSpare (0x100000 >> ln2RAMDirtyPageSz)
+
+/*
+	a write sets both bits of its page. RAMDirty_Clear clears
+	kRAMDirtySave, for save states, and the block cache of
+	MINEM68K (see UseBlockCache) clears kRAMDirtyCode.
+*/
+#define kRAMDirtySave 0x01
+#define kRAMDirtyCode 0x02
+#define kRAMDirtyAll (kRAMDirtySave | kRAMDirtyCode)
+
+/* followed by kRAMDirtyNumSpare bytes marked for memory that isn't RAM */
+EXPORTVAR(ui3b, RAMDirty[kRAMDirtyNumPages + kRAMDirtyNumSpare])
+EXPORTPROC RAMDirty_Mark(ui3p p, ui5r L);
+EXPORTPROC RAMDirty_SetAll(void);
+EXPORTPROC RAMDirty_Clear(void);
+
+/* save states */
+
+EXPORTVAR(blnr, StateLoading)
+EXPORTPROC State_Begin(ui3p p, blnr Loading);
+EXPORTFUNC ui5r State_End(void);
+EXPORTPROC State_Bytes(anyp p, ui5r n);
+#define State_Var(v) State_Bytes((anyp)&(v), sizeof(v))
+
+EXPORTPROC Memory_StateIO(void);
+
 #define kLn2CycleScale 6
 #define kCycleScale (1 << kLn2CycleScale)
 
@@ -89,6 +89,11 @@ GLOBALPROC IWM_Reset(void)
 		IWM.DataOut = IWM.Lines = 0;
 }
 
+GLOBALPROC IWM_StateIO(void)
+{
+	State_Var(IWM);
+}
+
 typedef enum {On, Off} Mode_Ty;
 
 LOCALPROC IWM_Set_Lines(ui3b line, Mode_Ty the_mode)
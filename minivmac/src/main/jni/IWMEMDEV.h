@@ -21,5 +21,6 @@
 #endif
 
 EXPORTPROC IWM_Reset(void);
+EXPORTPROC IWM_StateIO(void);
 
 EXPORTFUNC ui5b IWM_Access(ui5b Data, blnr WriteMem, CPTR addr);
@@ -29,6 +29,9 @@
 
 #include <time.h>
 #include <stdlib.h>
+#include <stdatomic.h>
+#include <pthread.h>
+#include <zlib.h>
 
 #include "CNFGRAPI.h"
 #include "SYSDEPNS.h"
@@ -48,6 +51,8 @@
 
 LOCALVAR blnr gBackgroundFlag = falseblnr;
 LOCALVAR blnr CurSpeedStopped = trueblnr;
+LOCALVAR blnr WantTurbo = falseblnr;
+LOCALVAR blnr CurTurbo = falseblnr;
 
 GLOBALVAR ui3b CurMouseButton = falseblnr;
 
@@ -184,14 +189,32 @@ LOCALFUNC blnr CheckDateTime(void)
 	}
 }
 
+LOCALVAR blnr HeadlessRun = falseblnr;
+
 LOCALFUNC blnr InitLocationDat(void)
 {
     GetCurrentTicks();
     CurMacDateInSeconds = NewMacDateInSeconds;
+    if (HeadlessRun) {
+        /* same date every run, so runs can be compared */
+        CurMacDateInSeconds = Date2MacSeconds(0, 0, 0, 1, 1, 2000);
+    }
 
     return trueblnr;
 }
 
+/* absolute time usec from now, for pthread_cond_timedwait */
+LOCALPROC GetAbsTimeAfter(struct timespec *abstime, ui5b usec)
+{
+	clock_gettime(CLOCK_REALTIME, abstime);
+	abstime->tv_sec += usec / 1000000;
+	abstime->tv_nsec += (usec % 1000000) * 1000;
+	if (abstime->tv_nsec >= 1000000000) {
+		abstime->tv_nsec -= 1000000000;
+		++abstime->tv_sec;
+	}
+}
+
 #if 0
 #pragma mark -
 #pragma mark Sound
@@ -220,11 +243,47 @@ LOCALFUNC blnr InitLocationDat(void)
 #define kAllBuffMask (kAllBuffLen - 1)
 #define dbhBufferSize (kAllBuffSz + kOneBuffSz)
 
+/*
+	TheSoundBuffer is filled by the emulation thread and
+	played by the audio thread started in Core.MySound_Init.
+	Each side only advances its own offset, so the two can
+	run at their own pace.
+*/
 LOCALVAR tpSoundSamp TheSoundBuffer = nullpr;
-LOCALVAR ui4b ThePlayOffset = 0;
-LOCALVAR ui4b TheFillOffset = 0;
-LOCALVAR ui4b MinFilledSoundBuffs = kSoundBuffers;
-LOCALVAR ui4b TheWriteOffset = 0;
+LOCALVAR atomic_uint ThePlayOffset = 0;
+	/* advanced by the audio thread */
+LOCALVAR atomic_uint TheFillOffset = 0;
+	/* advanced by the emulation thread, a block at a time */
+LOCALVAR atomic_uint MinFilledSoundBuffs = kSoundBuffers;
+	/* smallest backlog seen by the audio thread this second */
+LOCALVAR ui5b TheWriteOffset = 0;
+LOCALVAR atomic_uint SoundOverruns = 0;
+
+LOCALVAR pthread_mutex_t SoundMutex = PTHREAD_MUTEX_INITIALIZER;
+LOCALVAR pthread_cond_t SoundCond = PTHREAD_COND_INITIALIZER;
+LOCALVAR atomic_bool SoundPumpSleeping = falseblnr;
+
+/* time to play one block, in microseconds */
+#define kOneBuffUsec (kOneBuffLen * 1000000UL / 22255)
+
+LOCALFUNC blnr MySound_Init(void)
+{
+	/*
+		Java plays straight out of TheSoundBuffer, so nothing
+		is allocated or copied per block.
+	*/
+	blnr v = falseblnr;
+	jobject jBuffer = (*jEnv)->NewDirectByteBuffer(jEnv,
+		TheSoundBuffer, kAllBuffSz);
+
+	if (NULL != jBuffer) {
+		v = (*jEnv)->CallBooleanMethod(jEnv, mCore, jMySoundInit,
+			jBuffer);
+		(*jEnv)->DeleteLocalRef(jEnv, jBuffer);
+	}
+
+	return v;
+}
 
 #if 4 == kLn2SoundSampSz
 LOCALPROC ConvertSoundBlockToNative(tpSoundSamp p)
@@ -239,41 +298,37 @@ LOCALPROC ConvertSoundBlockToNative(tpSoundSamp p)
 #define ConvertSoundBlockToNative(p)
 #endif
 
-LOCALPROC MySound_WriteOut(void)
+LOCALPROC MySound_NoteFilled(ui5b n)
 {
-	int retry_count = 32;
+	ui5b Filled = n >> kLnOneBuffLen;
+	ui5b MinFilled = atomic_load(&MinFilledSoundBuffs);
 
-	label_retry:
-	if (--retry_count > 0) {
+	while ((Filled < MinFilled)
+		&& ! atomic_compare_exchange_weak(&MinFilledSoundBuffs,
+			&MinFilled, Filled))
+	{
+	}
+}
 
-		tpSoundSamp NextPlayPtr;
-		ui4b PlayNowSize = 0;
-		ui4b MaskedFillOffset = ThePlayOffset & kOneBuffMask;
+LOCALPROC MySound_WaitUsec(ui5b usec, blnr ForData)
+{
+	struct timespec abstime;
 
-		if (MaskedFillOffset != 0) {
-			/* take care of left overs */
-			PlayNowSize = kOneBuffLen - MaskedFillOffset;
-			NextPlayPtr = TheSoundBuffer + (ThePlayOffset & kAllBuffMask);
-		} else if (0 != ((TheFillOffset - ThePlayOffset) >> kLnOneBuffLen)) {
-			PlayNowSize = kOneBuffLen;
-			NextPlayPtr = TheSoundBuffer + (ThePlayOffset & kAllBuffMask);
-		} else {
-			/* nothing to play now */
-		}
+	GetAbsTimeAfter(&abstime, usec);
 
-		if (0 != PlayNowSize) {
-			jbyteArray jBuffer = (*jEnv)->NewByteArray(jEnv, PlayNowSize);
-			if (jBuffer != NULL) {
-				(*jEnv)->SetByteArrayRegion(jEnv, jBuffer, 0, PlayNowSize, (jbyte *) NextPlayPtr);
-				int err = (*jEnv)->CallIntMethod(jEnv, mCore, jPlaySound, jBuffer);
-				(*jEnv)->DeleteLocalRef(jEnv, jBuffer);
-				if (err >= 0) {
-					ThePlayOffset += err;
-					goto label_retry;
-				}
-			}
+	pthread_mutex_lock(&SoundMutex);
+	atomic_store(&SoundPumpSleeping, trueblnr);
+	while ((! ForData)
+		|| (atomic_load(&TheFillOffset) == atomic_load(&ThePlayOffset)))
+	{
+		if (0 != pthread_cond_timedwait(&SoundCond, &SoundMutex,
+			&abstime))
+		{
+			break;
 		}
 	}
+	atomic_store(&SoundPumpSleeping, falseblnr);
+	pthread_mutex_unlock(&SoundMutex);
 }
 
 LOCALFUNC blnr MySound_EndWrite0(ui4r actL)
@@ -287,8 +342,6 @@ LOCALFUNC blnr MySound_EndWrite0(ui4r actL)
 	} else {
 		/* just finished a block */
 
-		TheFillOffset = TheWriteOffset;
-
 		v = trueblnr;
 	}
 
@@ -299,15 +352,21 @@ GLOBALPROC MySound_EndWrite(ui4r actL)
 {
 	if (MySound_EndWrite0(actL)) {
 		ConvertSoundBlockToNative(TheSoundBuffer
-								  + ((TheFillOffset - kOneBuffLen) & kAllBuffMask));
-		MySound_WriteOut();
+								  + ((TheWriteOffset - kOneBuffLen) & kAllBuffMask));
+		atomic_store(&TheFillOffset, TheWriteOffset);
+		if (atomic_load(&SoundPumpSleeping)) {
+			pthread_mutex_lock(&SoundMutex);
+			pthread_cond_signal(&SoundCond);
+			pthread_mutex_unlock(&SoundMutex);
+		}
 	}
 }
 
 GLOBALFUNC tpSoundSamp MySound_BeginWrite(ui4r n, ui4r *actL)
 {
-	ui4b ToFillLen = kAllBuffLen - (TheWriteOffset - ThePlayOffset);
-	ui4b WriteBuffContig = kOneBuffLen - (TheWriteOffset & kOneBuffMask);
+	ui5b ToFillLen = kAllBuffLen
+		- (TheWriteOffset - atomic_load(&ThePlayOffset));
+	ui5b WriteBuffContig = kOneBuffLen - (TheWriteOffset & kOneBuffMask);
 
 	if (WriteBuffContig < n) {
 		n = WriteBuffContig;
@@ -315,6 +374,11 @@ GLOBALFUNC tpSoundSamp MySound_BeginWrite(ui4r n, ui4r *actL)
 	if (ToFillLen < n) {
 		/* overwrite previous buffer */
 		TheWriteOffset -= kOneBuffLen;
+		if (! CurTurbo) {
+			/* in turbo nothing is played, so this is expected */
+			atomic_fetch_add_explicit(&SoundOverruns, 1,
+				memory_order_relaxed);
+		}
 	}
 
 	*actL = n;
@@ -323,13 +387,15 @@ GLOBALFUNC tpSoundSamp MySound_BeginWrite(ui4r n, ui4r *actL)
 
 LOCALPROC MySound_SecondNotify(void)
 {
-	if (MinFilledSoundBuffs <= kSoundBuffers) {
-		if (MinFilledSoundBuffs > DesiredMinFilledSoundBuffs) {
+	ui5b MinFilled = atomic_exchange(&MinFilledSoundBuffs,
+		kSoundBuffers + 1);
+
+	if (MinFilled <= kSoundBuffers) {
+		if (MinFilled > DesiredMinFilledSoundBuffs) {
 			IncrNextTime();
-		} else if (MinFilledSoundBuffs < DesiredMinFilledSoundBuffs) {
+		} else if (MinFilled < DesiredMinFilledSoundBuffs) {
 			++TrueEmulatedTime;
 		}
-		MinFilledSoundBuffs = kSoundBuffers + 1;
 	}
 }
 
@@ -498,11 +564,131 @@ LOCALPROC NativeStrFromCStr(char *r, char *s)
 	r[L] = 0;
 }
 
+#if 0
+#pragma mark -
+#pragma mark Pause
+#endif
+
+/*
+	While emulation is stopped the emulation thread blocks here
+	instead of polling. Anything that can end the pause, or that
+	needs to be looked at while paused, calls WakeEmulation.
+*/
+
+LOCALVAR pthread_mutex_t WakeMutex = PTHREAD_MUTEX_INITIALIZER;
+LOCALVAR pthread_cond_t WakeCond = PTHREAD_COND_INITIALIZER;
+LOCALVAR atomic_bool WakeRequested = falseblnr;
+LOCALVAR atomic_bool EmulationSleeping = falseblnr;
+
+LOCALPROC WakeEmulation(void)
+{
+	atomic_store(&WakeRequested, trueblnr);
+	if (atomic_load(&EmulationSleeping)) {
+		pthread_mutex_lock(&WakeMutex);
+		pthread_cond_signal(&WakeCond);
+		pthread_mutex_unlock(&WakeMutex);
+	}
+}
+
+LOCALPROC WaitForWake(void)
+{
+	pthread_mutex_lock(&WakeMutex);
+	atomic_store(&EmulationSleeping, trueblnr);
+	while (! atomic_load(&WakeRequested)) {
+		pthread_cond_wait(&WakeCond, &WakeMutex);
+	}
+	atomic_store(&EmulationSleeping, falseblnr);
+	atomic_store(&WakeRequested, falseblnr);
+	pthread_mutex_unlock(&WakeMutex);
+}
+
+/*
+	Sleep until the next tick is due, but return early if
+	WakeEmulation is called, so input gets to the emulated
+	machine without waiting out the rest of the tick.
+*/
+LOCALPROC WaitForWakeOrTimeout(si5b usec)
+{
+	struct timespec abstime;
+
+	GetAbsTimeAfter(&abstime, usec);
+
+	pthread_mutex_lock(&WakeMutex);
+	atomic_store(&EmulationSleeping, trueblnr);
+	while (! atomic_load(&WakeRequested)) {
+		if (0 != pthread_cond_timedwait(&WakeCond, &WakeMutex,
+			&abstime))
+		{
+			break;
+		}
+	}
+	atomic_store(&EmulationSleeping, falseblnr);
+	atomic_store(&WakeRequested, falseblnr);
+	pthread_mutex_unlock(&WakeMutex);
+}
+
 #if 0
 #pragma mark -
 #pragma mark Floppy Driver
 #endif
 
+/*
+	Disk images mapped into memory by MappedDisk, or opened for
+	us by NativeDisk. Transfers on these drives are plain memory
+	copies or pread/pwrite calls, with no call into Java.
+*/
+LOCALVAR ui3p DiskMapAddr[NumDrives];
+LOCALVAR ui5r DiskMapSize[NumDrives];
+LOCALVAR int DiskFd[NumDrives];
+LOCALVAR blnr DiskFdOpen[NumDrives];
+LOCALVAR blnr DiskWritable[NumDrives];
+
+/*
+	Held to close a descriptor, and to sync one from another thread
+	(the save state writer), so it can't be closed under the sync.
+*/
+LOCALVAR pthread_mutex_t DiskFdMutex = PTHREAD_MUTEX_INITIALIZER;
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    notifyDiskMapped
+ * Signature: (ILjava/nio/ByteBuffer;Z)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_notifyDiskMapped (JNIEnv * env, jclass class, jint drive, jobject buffer, jboolean writable) {
+	if (NULL == buffer) {
+		DiskMapAddr[drive] = nullpr;
+		DiskMapSize[drive] = 0;
+	} else {
+		DiskMapAddr[drive] = (ui3p)(*env)->GetDirectBufferAddress(env, buffer);
+		DiskMapSize[drive] = (ui5r)(*env)->GetDirectBufferCapacity(env, buffer);
+	}
+	DiskWritable[drive] = writable?trueblnr:falseblnr;
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    notifyDiskOpened
+ * Signature: (IIZ)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_notifyDiskOpened (JNIEnv * env, jclass class, jint drive, jint fd, jboolean writable) {
+	DiskFd[drive] = fd;
+	DiskFdOpen[drive] = trueblnr;
+	DiskWritable[drive] = writable?trueblnr:falseblnr;
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    syncDisk
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_syncDisk (JNIEnv * env, jclass class, jint drive) {
+	pthread_mutex_lock(&DiskFdMutex);
+	if (DiskFdOpen[drive] && DiskWritable[drive]) {
+		(void) fsync(DiskFd[drive]);
+	}
+	pthread_mutex_unlock(&DiskFdMutex);
+}
+
 /*
  * Class:     name_osher_gil_minivmac_Core
  * Method:    notifyDiskInserted
@@ -510,6 +696,7 @@ LOCALPROC NativeStrFromCStr(char *r, char *s)
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_notifyDiskInserted (JNIEnv * env, jclass class, jint drive, jboolean locked) {
 	DiskInsertNotify((ui4b)drive, locked?trueblnr:falseblnr);
+	WakeEmulation();
 }
 
 /*
@@ -518,6 +705,8 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_notifyDiskInserted (JNI
  * Signature: (I)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_notifyDiskEjected (JNIEnv * env, jclass class, jint drive) {
+	DiskMapAddr[drive] = nullpr;
+	DiskMapSize[drive] = 0;
 	DiskEjectedNotify((ui4b)drive);
 }
 
@@ -546,8 +735,85 @@ JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_getNumDrives (JNIEnv *
 }
 
 // callbacks
+LOCALFUNC tMacErr vSonyTransferMapped(blnr IsWrite, ui3p Buffer, tDrive Drive_No, ui5r Sony_Start, ui5r Sony_Count, ui5r *Sony_ActCount)
+{
+	ui5r actCount = 0;
+	tMacErr result = mnvm_noErr;
+
+	if (IsWrite && ! DiskWritable[Drive_No]) {
+		result = mnvm_wPrErr;
+	} else if (Sony_Start > DiskMapSize[Drive_No]) {
+		result = mnvm_eofErr;
+	} else {
+		actCount = DiskMapSize[Drive_No] - Sony_Start;
+		if (actCount > Sony_Count) {
+			actCount = Sony_Count;
+		}
+		if (IsWrite) {
+			memcpy(DiskMapAddr[Drive_No] + Sony_Start, Buffer, actCount);
+		} else {
+			memcpy(Buffer, DiskMapAddr[Drive_No] + Sony_Start, actCount);
+		}
+	}
+
+	if (nullpr != Sony_ActCount) {
+		*Sony_ActCount = actCount;
+	}
+
+	return result;
+}
+
+LOCALFUNC tMacErr vSonyTransferFd(blnr IsWrite, ui3p Buffer, tDrive Drive_No, ui5r Sony_Start, ui5r Sony_Count, ui5r *Sony_ActCount)
+{
+	ui5r actCount = 0;
+	tMacErr result = mnvm_noErr;
+
+	if (IsWrite && ! DiskWritable[Drive_No]) {
+		result = mnvm_wPrErr;
+	} else {
+		while (actCount < Sony_Count) {
+			ssize_t n;
+			if (IsWrite) {
+				n = pwrite(DiskFd[Drive_No], Buffer + actCount,
+					Sony_Count - actCount, (off_t)Sony_Start + actCount);
+			} else {
+				n = pread(DiskFd[Drive_No], Buffer + actCount,
+					Sony_Count - actCount, (off_t)Sony_Start + actCount);
+			}
+			if (n > 0) {
+				actCount += n;
+			} else if ((n < 0) && (EINTR == errno)) {
+				/* interrupted, try again */
+			} else {
+				if (n < 0) {
+					result = mnvm_miscErr;
+				}
+				break;
+			}
+		}
+	}
+
+	if (nullpr != Sony_ActCount) {
+		*Sony_ActCount = actCount;
+	}
+
+	return result;
+}
+
+FORWARDPROC StateNoteDiskWrite(void);
+
 GLOBALFUNC tMacErr vSonyTransfer(blnr IsWrite, ui3p Buffer,	tDrive Drive_No, ui5r Sony_Start, ui5r Sony_Count, ui5r *Sony_ActCount)
 {
+	if (IsWrite) {
+		StateNoteDiskWrite();
+	}
+	if (nullpr != DiskMapAddr[Drive_No]) {
+		return vSonyTransferMapped(IsWrite, Buffer, Drive_No, Sony_Start, Sony_Count, Sony_ActCount);
+	}
+	if (DiskFdOpen[Drive_No]) {
+		return vSonyTransferFd(IsWrite, Buffer, Drive_No, Sony_Start, Sony_Count, Sony_ActCount);
+	}
+
 	jobject jBuffer;
 	jBuffer = (*jEnv)->NewDirectByteBuffer(jEnv, Buffer, (jlong)Sony_Count);
 	ui5r actCount = (*jEnv)->CallIntMethod(jEnv, mCore, jSonyTransfer, (jboolean)IsWrite, jBuffer, (jint)Drive_No, (jint)Sony_Start, (jint)Sony_Count);
@@ -562,18 +828,40 @@ GLOBALFUNC tMacErr vSonyTransfer(blnr IsWrite, ui3p Buffer,	tDrive Drive_No, ui5
 
 GLOBALFUNC tMacErr vSonyGetSize(tDrive Drive_No, ui5r *Sony_Count)
 {
+	if (nullpr != DiskMapAddr[Drive_No]) {
+		*Sony_Count = DiskMapSize[Drive_No];
+		return mnvm_noErr;
+	}
+	if (DiskFdOpen[Drive_No]) {
+		struct stat st;
+		if (0 != fstat(DiskFd[Drive_No], &st)) return mnvm_miscErr;
+		*Sony_Count = (ui5r)st.st_size;
+		return mnvm_noErr;
+	}
 	*Sony_Count = (*jEnv)->CallIntMethod(jEnv, mCore, jSonyGetSize, (jint)Drive_No);
 	if (*Sony_Count < 0) return -1;
 	return 0;
 }
 
+LOCALPROC DiskCloseFd(tDrive Drive_No)
+{
+	if (DiskFdOpen[Drive_No]) {
+		pthread_mutex_lock(&DiskFdMutex);
+		DiskFdOpen[Drive_No] = falseblnr;
+		(void) close(DiskFd[Drive_No]);
+		pthread_mutex_unlock(&DiskFdMutex);
+	}
+}
+
 GLOBALFUNC tMacErr vSonyEject(tDrive Drive_No) {
+	DiskCloseFd(Drive_No);
 	return (*jEnv)->CallIntMethod(jEnv, mCore, jSonyEject, (jint)Drive_No, JNI_FALSE);
 }
 
 #if IncludeSonyNew
 GLOBALFUNC tMacErr vSonyEjectDelete(tDrive Drive_No)
 {
+	DiskCloseFd(Drive_No);
 	return (*jEnv)->CallIntMethod(jEnv, mCore, jSonyEject, (jint)Drive_No, JNI_TRUE);
 }
 #endif
@@ -670,10 +958,68 @@ LOCALPROC MakeNewDiskAtDefault(ui5b L)
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_MySound_1Start0 (JNIEnv * env, jclass class) {
 #if MySoundEnabled
 	/* Reset variables */
-	ThePlayOffset = 0;
-	TheFillOffset = 0;
+	atomic_store(&ThePlayOffset, 0);
+	atomic_store(&TheFillOffset, 0);
 	TheWriteOffset = 0;
-	MinFilledSoundBuffs = kSoundBuffers + 1;
+	atomic_store(&MinFilledSoundBuffs, kSoundBuffers + 1);
+#endif
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    MySound_Pump
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_MySound_1Pump (JNIEnv * env, jobject this) {
+#if MySoundEnabled
+	/*
+		Called over and over by the audio thread. Hands what
+		is ready to Java, then sleeps until there is more to
+		play, or room in the audio track to play it.
+	*/
+	ui5b PlayOffset = atomic_load(&ThePlayOffset);
+	ui5b PlayNowSize = atomic_load(&TheFillOffset) - PlayOffset;
+	ui5b PlayContig = kAllBuffLen - (PlayOffset & kAllBuffMask);
+	jint err;
+
+	if (0 == PlayNowSize) {
+		MySound_NoteFilled(0);
+		MySound_WaitUsec(kOneBuffUsec, trueblnr);
+		return;
+	}
+
+	if (PlayContig < PlayNowSize) {
+		PlayNowSize = PlayContig;
+	}
+
+	err = (*env)->CallIntMethod(env, this, jPlaySound,
+		(jint)((PlayOffset & kAllBuffMask) << (kLn2SoundSampSz - 3)),
+		(jint)(PlayNowSize << (kLn2SoundSampSz - 3)));
+	if (err > 0) {
+		PlayOffset += err >> (kLn2SoundSampSz - 3);
+		atomic_store(&ThePlayOffset, PlayOffset);
+	}
+
+	MySound_NoteFilled(atomic_load(&TheFillOffset) - PlayOffset);
+
+	if (err < (jint)(PlayNowSize << (kLn2SoundSampSz - 3))) {
+		/* audio track is full, give it time to play some */
+		MySound_WaitUsec(kOneBuffUsec / 2, falseblnr);
+	}
+#endif
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    getSoundOverruns
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_getSoundOverruns (JNIEnv * env, jclass class) {
+#if MySoundEnabled
+	return (jint)atomic_load_explicit(&SoundOverruns,
+		memory_order_relaxed);
+#else
+	return 0;
 #endif
 }
 
@@ -711,111 +1057,261 @@ JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_screenDepth (JNIEnv * e
 	return (jint)vMacScreenDepth;
 }
 
+/*
+	Persistent ARGB surface shared with Java, registered once by
+	Core.initScreen. Only the dirty rectangle is converted into it,
+	so there is no allocation per frame.
+*/
+LOCALVAR jintArray jScreenBuffer = NULL;
+
+/*
+	Set when a frame is handed to Java, cleared by
+	Core.screenUpdateDone once the UI thread has copied it out.
+	Until then the buffer is left alone and the changes keep
+	adding up, so the UI never reads a half converted frame.
+*/
+LOCALVAR atomic_bool ScreenUpdatePending = falseblnr;
+
 /*
  * Class:     name_osher_gil_minivmac_Core
- * Method:    getScreenUpdate
- * Signature: ()[I
+ * Method:    setScreenBuffer
+ * Signature: ([I)V
  */
-JNIEXPORT jintArray JNICALL Java_name_osher_gil_minivmac_Core_getScreenUpdate (JNIEnv * env, jclass class) {
-	si4b top, left, bottom, right;
-
-	if (0 != SpecialModes) {
-		top = 0;
-		left = 0;
-		bottom = vMacScreenHeight;
-		right = vMacScreenWidth;
-		WasInSpecialMode = trueblnr;
-	} else if (WasInSpecialMode) {
-		top = 0;
-		left = 0;
-		bottom = vMacScreenHeight;
-		right = vMacScreenWidth;
-		WasInSpecialMode = falseblnr;
-	} else if (ScreenChangedBottom > ScreenChangedTop) {
-		top = ScreenChangedTop;
-		left = ScreenChangedLeft;
-		bottom = ScreenChangedBottom;
-		right = ScreenChangedRight;
-	} else {
-		// No change - return empty array.
-		jintArray jArray = (*jEnv)->NewIntArray(jEnv, (jsize)0);
-		return jArray;
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setScreenBuffer (JNIEnv * env, jclass class, jintArray buffer) {
+	if (NULL != jScreenBuffer) {
+		(*env)->DeleteGlobalRef(env, jScreenBuffer);
+		jScreenBuffer = NULL;
 	}
+	if (NULL != buffer) {
+		if ((*env)->GetArrayLength(env, buffer)
+			< vMacScreenWidth * vMacScreenHeight)
+		{
+			return;
+		}
+		jScreenBuffer = (*env)->NewGlobalRef(env, buffer);
+	}
+	atomic_store(&ScreenUpdatePending, falseblnr);
+}
 
-	int changesWidth = right - left;
-	int changesHeight = bottom - top;
-	jsize changesSize = changesWidth * changesHeight;
-	int i,x,y;
-
-	// create java array of changes: top, left, bottom, right, pixels...
-	jintArray jArray = (*jEnv)->NewIntArray(jEnv, changesSize);
-	jboolean arrayCopy = JNI_FALSE;
-	jint *arr = (jint*)(*jEnv)->GetPrimitiveArrayCritical(jEnv, (jarray)jArray, &arrayCopy);
-	jint *px = arr;
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    screenUpdateDone
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_screenUpdateDone (JNIEnv * env, jclass class) {
+	atomic_store(&ScreenUpdatePending, falseblnr);
+}
 
-	ui3p curdrawbuff = GetCurDrawBuff();
+LOCALPROC MyConvertScreenRect(jint *screen, ui3p curdrawbuff,
+	si4b top, si4b left, si4b bottom, si4b right)
+{
+	int x, y;
+	jint *px;
 
-	// convert pixels
+	// convert pixels, row by row, into the full size surface
 #if 0 != vMacScreenDepth
 	if (UseColorMode) {
+		for (y = top; y < bottom; y++) {
+			ui3p src = curdrawbuff + y * vMacScreenByteWidth;
+			px = screen + y * vMacScreenWidth;
+			for (x = left; x < right; x++) {
 #if 4 > vMacScreenDepth
-    	x = left;
-    	y = top*vMacScreenByteWidth;
-    	for(i=0; i < changesSize; i++) {
-    		int pixel = (((unsigned char*)curdrawbuff)[y+x]);
-    		px[i] = (0xFF000000 |
-    				 ((((unsigned int)CLUT_reds[pixel]  ) >> 8) << 16) |
-    				 ((((unsigned int)CLUT_greens[pixel]) >> 8) << 8 ) |
-    				 ((((unsigned int)CLUT_blues[pixel] ) >> 8)		 ));
-
-    		if (++x >= right) {
-    			x = left;
-    			y += vMacScreenByteWidth;
-    		}
-    	}
+				int pixel = src[x];
+				px[x] = (0xFF000000 |
+						 ((((unsigned int)CLUT_reds[pixel]  ) >> 8) << 16) |
+						 ((((unsigned int)CLUT_greens[pixel]) >> 8) << 8 ) |
+						 ((((unsigned int)CLUT_blues[pixel] ) >> 8)		 ));
 #else
-    	x = left;
-    	y = top*vMacScreenByteWidth;
-    	for(i=0; i < changesSize; i++) {
-    		int pixel = ((unsigned char*)curdrawbuff)[y+x];
-    		px[i] = pixel;//((pixel & 0xFF00) >> 8) | ((pixel & 0x00FF) << 8);
-
-    		if (++x >= right) {
-    			x = left;
-    			y += vMacScreenByteWidth;
-    		}
-    	}
+				px[x] = src[x];
 #endif
-    } else {
+			}
+		}
+	} else {
 #endif
-    	x = left;
-    	y = top*vMacScreenMonoByteWidth;
-    	for(i=0; i < changesSize; i++) {
-    		int pixel = ((((unsigned char*)curdrawbuff)[y+(x/8)]) << (x%8)) & 0x80;
-    		px[i] = pixel?BLACK:WHITE;
-
-    		if (++x >= right) {
-    			x = left;
-    			y += vMacScreenMonoByteWidth;
-    		}
-    	}
+		for (y = top; y < bottom; y++) {
+			ui3p src = curdrawbuff + y * vMacScreenMonoByteWidth;
+			px = screen + y * vMacScreenWidth;
+			for (x = left; x < right; x++) {
+				px[x] = ((src[x >> 3] << (x & 7)) & 0x80) ? BLACK : WHITE;
+			}
+		}
 #if 0 != vMacScreenDepth
-    }
+	}
 #endif
-
-	(*jEnv)->ReleasePrimitiveArrayCritical(jEnv, (jarray)jArray, (void*)arr, 0);
-	return jArray;
 }
 
 LOCALPROC MyDrawChangesAndClear(void)
 {
-	if (ScreenChangedBottom > ScreenChangedTop) {
-		(*jEnv)->CallVoidMethod(jEnv, mCore, jUpdateScreen, (jint)ScreenChangedTop, (jint)ScreenChangedLeft,
-                                (jint)ScreenChangedBottom, (jint)ScreenChangedRight);
+	si4b top, left, bottom, right;
+
+	if ((ScreenChangedBottom > ScreenChangedTop)
+		&& ! atomic_load(&ScreenUpdatePending))
+	{
+		if ((0 != SpecialModes) || WasInSpecialMode) {
+			top = 0;
+			left = 0;
+			bottom = vMacScreenHeight;
+			right = vMacScreenWidth;
+			WasInSpecialMode = (0 != SpecialModes);
+		} else {
+			top = ScreenChangedTop;
+			left = ScreenChangedLeft;
+			bottom = ScreenChangedBottom;
+			right = ScreenChangedRight;
+		}
+
+		if (NULL != jScreenBuffer) {
+			jint *screen = (jint *)(*jEnv)->GetPrimitiveArrayCritical(jEnv,
+				(jarray)jScreenBuffer, NULL);
+			if (NULL != screen) {
+				MyConvertScreenRect(screen, GetCurDrawBuff(),
+					top, left, bottom, right);
+				(*jEnv)->ReleasePrimitiveArrayCritical(jEnv,
+					(jarray)jScreenBuffer, (void *)screen, 0);
+				atomic_store(&ScreenUpdatePending, trueblnr);
+				(*jEnv)->CallVoidMethod(jEnv, mCore, jUpdateScreen,
+					(jint)top, (jint)left, (jint)bottom, (jint)right);
+			}
+		}
 		ScreenClearChanges();
 	}
 }
 
+#if 0
+#pragma mark -
+#pragma mark Input queue
+#endif
+
+/*
+	Input events arrive on the UI thread, but MyEvtQ belongs to the
+	emulation thread. They are passed through this single producer,
+	single consumer ring, which the emulation thread drains once per
+	tick into MyEvtQ.
+*/
+
+#define InputQLg2Sz 8
+#define InputQSz (1 << InputQLg2Sz)
+#define InputQIMask (InputQSz - 1)
+
+enum {
+	InputQElKindMousePos,
+	InputQElKindMouseDelta,
+	InputQElKindMouseButton,
+	InputQElKindKey
+};
+
+typedef struct InputQEl {
+	ui3b kind;
+	ui3b down;
+	si4b h;
+	si4b v;
+} InputQEl;
+
+LOCALVAR InputQEl InputQA[InputQSz];
+LOCALVAR atomic_uint InputQIn = 0; /* written by the UI thread only */
+LOCALVAR atomic_uint InputQOut = 0; /* written by the emulation thread only */
+
+LOCALVAR atomic_uint InputQDropped = 0;
+LOCALVAR atomic_uint InputQCoalesced = 0;
+
+LOCALPROC InputQPut(ui3r kind, blnr down, si4r h, si4r v)
+{
+	unsigned int in = atomic_load_explicit(&InputQIn, memory_order_relaxed);
+	unsigned int out = atomic_load_explicit(&InputQOut, memory_order_acquire);
+
+	if (in - out >= InputQSz) {
+		atomic_fetch_add_explicit(&InputQDropped, 1, memory_order_relaxed);
+	} else {
+		InputQEl *p = &InputQA[in & InputQIMask];
+
+		p->kind = kind;
+		p->down = down;
+		p->h = h;
+		p->v = v;
+
+		atomic_store_explicit(&InputQIn, in + 1, memory_order_release);
+	}
+
+	WakeEmulation();
+}
+
+LOCALPROC InputQDrain(void)
+{
+	unsigned int out = atomic_load_explicit(&InputQOut, memory_order_relaxed);
+	unsigned int in = atomic_load_explicit(&InputQIn, memory_order_acquire);
+
+	while (out != in) {
+		InputQEl *p = &InputQA[out & InputQIMask];
+
+		if (MyEvtQIn - MyEvtQOut >= MyEvtQSz - 1) {
+			/* leave the rest for the next tick */
+			break;
+		}
+
+		switch (p->kind) {
+			case InputQElKindMousePos:
+				if ((out + 1 != in) && (InputQElKindMousePos
+					== InputQA[(out + 1) & InputQIMask].kind))
+				{
+					/* only the latest position matters */
+					atomic_fetch_add_explicit(&InputQCoalesced, 1,
+						memory_order_relaxed);
+				} else {
+					HaveMouseMotion = falseblnr;
+					CurMouseH = CLAMP(p->h, 0, vMacScreenWidth);
+					CurMouseV = CLAMP(p->v, 0, vMacScreenHeight);
+
+					MyMousePositionSet(CurMouseH, CurMouseV);
+				}
+				break;
+#if EnableFSMouseMotion
+			case InputQElKindMouseDelta:
+				HaveMouseMotion = trueblnr;
+				MyMousePositionSetDelta(p->h, p->v);
+				break;
+#endif
+			case InputQElKindMouseButton:
+				CurMouseButton = p->down;
+				MyMouseButtonSet(CurMouseButton);
+				break;
+			case InputQElKindKey:
+				Keyboard_UpdateKeyMap2(p->h, p->down);
+				break;
+			default:
+				break;
+		}
+
+		++out;
+	}
+
+	atomic_store_explicit(&InputQOut, out, memory_order_release);
+
+	if (MyEvtQNeedRecover) {
+		MyEvtQNeedRecover = falseblnr;
+
+		/* attempt cleanup, MyEvtQNeedRecover may get set again */
+		MyEvtQTryRecoverFromFull();
+	}
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    getDroppedInputEvents
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_getDroppedInputEvents (JNIEnv * env, jclass class) {
+	return (jint)atomic_load_explicit(&InputQDropped, memory_order_relaxed);
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    getCoalescedInputEvents
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_getCoalescedInputEvents (JNIEnv * env, jclass class) {
+	return (jint)atomic_load_explicit(&InputQCoalesced, memory_order_relaxed);
+}
+
 #if 0
 #pragma mark -
 #pragma mark Mouse
@@ -827,8 +1323,7 @@ LOCALPROC MyDrawChangesAndClear(void)
  * Signature: (II)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_moveMouse (JNIEnv * env, jclass class, jint dx, jint dy) {
-	HaveMouseMotion = trueblnr;
-	MyMousePositionSetDelta(dx, dy);
+	InputQPut(InputQElKindMouseDelta, falseblnr, dx, dy);
 }
 
 /*
@@ -837,11 +1332,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_moveMouse (JNIEnv * env
  * Signature: (II)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setMousePos (JNIEnv * env, jclass class, jint x, jint y) {
-	HaveMouseMotion = falseblnr;
-	CurMouseH = CLAMP(x, 0, vMacScreenWidth);
-	CurMouseV = CLAMP(y, 0, vMacScreenHeight);
-
-	MyMousePositionSet(CurMouseH, CurMouseV);
+	InputQPut(InputQElKindMousePos, falseblnr, x, y);
 }
 
 /*
@@ -850,8 +1341,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setMousePos (JNIEnv * e
  * Signature: (Z)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setMouseButton (JNIEnv * env, jclass class, jboolean down) {
-	CurMouseButton = down?trueblnr:falseblnr;
-	MyMouseButtonSet(CurMouseButton);
+	InputQPut(InputQElKindMouseButton, down?trueblnr:falseblnr, 0, 0);
 }
 
 /*
@@ -892,7 +1382,7 @@ JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core_getMouseButton (JNI
  * Signature: (I)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setKeyDown (JNIEnv * env, jclass class, jint key) {
-	Keyboard_UpdateKeyMap2(key, trueblnr);
+	InputQPut(InputQElKindKey, trueblnr, key, 0);
 }
 
 /*
@@ -901,7 +1391,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setKeyDown (JNIEnv * en
  * Signature: (I)V
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setKeyUp (JNIEnv * env, jclass class, jint key) {
-	Keyboard_UpdateKeyMap2(key, falseblnr);
+	InputQPut(InputQElKindKey, falseblnr, key, 0);
 }
 
 #if 0
@@ -932,27 +1422,319 @@ LOCALPROC CheckSavedMacMsg(void)
 
 #if 0
 #pragma mark -
-#pragma mark Emulation
+#pragma mark Headless
 #endif
 
-LOCALPROC LeaveSpeedStopped(void)
+/*
+	Used by the host harness in src/host. Each call to
+	WaitForNextTick is one more tick, with no waiting for real
+	time, no extra time, and no catching up, so a run does the
+	same work every time. Once a second (of emulated time)
+	Core.onHeadlessSecond gets a hash of the screen and the
+	number of instructions executed so far.
+*/
+
+LOCALVAR ui5b HeadlessTicksLeft = 0;
+LOCALVAR ui5b HeadlessTicksDone = 0;
+LOCALVAR jmethodID jHeadlessSecond;
+#if WantInstrCount
+LOCALVAR jlong HeadlessInstrs = 0;
+LOCALVAR ui5r HeadlessLastInstrs = 0;
+#endif
+
+LOCALFUNC ui5r HeadlessFrameHash(void)
 {
-#if MySoundEnabled
-	(*jEnv)->CallVoidMethod(jEnv, mCore, jMySoundStart);
+	/* FNV-1a */
+	ui3p p = GetCurDrawBuff();
+	ui5r h = 2166136261UL;
+	ui5r i =
+#if 0 != vMacScreenDepth
+		UseColorMode ? vMacScreenNumBytes :
 #endif
+			vMacScreenMonoNumBytes;
 
-    StartUpTimeAdjust();
+	for (; i != 0; --i) {
+		h = (h ^ *p++) * 16777619UL;
+	}
+
+	return h;
 }
 
-LOCALPROC EnterSpeedStopped(void)
+LOCALPROC HeadlessTickDone(void)
 {
-#if MySoundEnabled
-	(*jEnv)->CallVoidMethod(jEnv, mCore, jMySoundStop);
+#if WantInstrCount
+	HeadlessInstrs += (ui5r)(InstructionsExecuted - HeadlessLastInstrs);
+	HeadlessLastInstrs = InstructionsExecuted;
 #endif
+
+	if ((0 != HeadlessTicksDone) && (0 == (HeadlessTicksDone % 60))) {
+		++CurMacDateInSeconds;
+		(*jEnv)->CallVoidMethod(jEnv, mCore, jHeadlessSecond,
+			(jint)(HeadlessTicksDone / 60),
+			(jint)HeadlessFrameHash(),
+#if WantInstrCount
+			HeadlessInstrs
+#else
+			(jlong)-1
+#endif
+			);
+	}
+}
+
+LOCALPROC HeadlessNextTick(void)
+{
+	if (0 == HeadlessTicksLeft) {
+		ForceMacOff = trueblnr;
+	} else {
+		--HeadlessTicksLeft;
+		++HeadlessTicksDone;
+		++TrueEmulatedTime;
+	}
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    setHeadlessTicks
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setHeadlessTicks (JNIEnv * env, jclass class, jint ticks) {
+	jHeadlessSecond = (*env)->GetMethodID(env, class, "onHeadlessSecond", "(IIJ)V");
+	HeadlessTicksLeft = (ui5b)ticks;
+	HeadlessTicksDone = 0;
+	HeadlessRun = trueblnr;
+}
+
+#if WantGuestProfile
+
+#if 0
+#pragma mark -
+#pragma mark Profile
+#endif
+
+#define kProfileReportTop 30
+#define kProfileReportSize 16384
+
+/*
+	the emulation thread keeps counting while a report is made,
+	so the report is made from a copy
+*/
+LOCALVAR GuestProfile ProfileCopy;
+LOCALVAR ui4b ProfileOrder[kProfileNumATraps];
+LOCALVAR ui5r *ProfileSortCounts;
+
+LOCALVAR char *ProfileReport;
+LOCALVAR ui5r ProfileReportLen;
+
+LOCALFUNC int ProfileCompareDesc(const void *a, const void *b)
+{
+	ui5r ca = ProfileSortCounts[*(const ui4b *)a];
+	ui5r cb = ProfileSortCounts[*(const ui4b *)b];
+
+	return (ca < cb) ? 1 : ((ca > cb) ? -1 : 0);
+}
+
+/* indices of the non zero counts, most often first */
+LOCALFUNC ui5r ProfileSortNonZero(ui5r *counts, ui5r n)
+{
+	ui5r i;
+	ui5r m = 0;
+
+	for (i = 0; i < n; ++i) {
+		if (0 != counts[i]) {
+			ProfileOrder[m++] = i;
+		}
+	}
+	ProfileSortCounts = counts;
+	qsort(ProfileOrder, m, sizeof(ProfileOrder[0]), ProfileCompareDesc);
+
+	return m;
+}
+
+LOCALPROC ProfilePrintf(const char *format, ...)
+{
+	va_list args;
+	int n;
+
+	va_start(args, format);
+	n = vsnprintf(ProfileReport + ProfileReportLen,
+		kProfileReportSize - ProfileReportLen, format, args);
+	va_end(args);
+
+	if (n > 0) {
+		ProfileReportLen += n;
+		if (ProfileReportLen >= kProfileReportSize) {
+			ProfileReportLen = kProfileReportSize - 1;
+		}
+	}
+}
+
+LOCALFUNC double ProfilePercent(ui5r count)
+{
+	return (0 == ProfileCopy.NumSamples) ? 0.0
+		: (100.0 * count / ProfileCopy.NumSamples);
+}
+
+LOCALPROC ProfileMakeReport(void)
+{
+	ui5r i;
+	ui5r n;
+	ui5r c;
+
+	ProfileCopy = TheProfile;
+	ProfileReportLen = 0;
+	ProfileReport[0] = 0;
+
+	ProfilePrintf("samples: %u\n", (unsigned)ProfileCopy.NumSamples);
+
+	n = ProfileSortNonZero(ProfileCopy.PCCount, kProfileNumPCSlots);
+	ProfilePrintf("\npc (%u distinct, %u not recorded)\n",
+		(unsigned)n, (unsigned)ProfileCopy.PCOther);
+	for (i = 0; (i < n) && (i < kProfileReportTop); ++i) {
+		c = ProfileCopy.PCCount[ProfileOrder[i]];
+		ProfilePrintf("%08X %8u %5.1f%%\n",
+			(unsigned)ProfileCopy.PCAddr[ProfileOrder[i]],
+			(unsigned)c, ProfilePercent(c));
+	}
+
+	n = ProfileSortNonZero(ProfileCopy.KindCount,
+		ProfileCopy.NumKinds);
+	ProfilePrintf("\ninstruction kind at pc\n");
+	for (i = 0; i < n; ++i) {
+		c = ProfileCopy.KindCount[ProfileOrder[i]];
+		ProfilePrintf("%-12s %8u %5.1f%%\n",
+			ProfileCopy.KindName[ProfileOrder[i]],
+			(unsigned)c, ProfilePercent(c));
+	}
+
+	n = ProfileSortNonZero(ProfileCopy.ATrapCount, kProfileNumATraps);
+	ProfilePrintf("\na-line traps (%u distinct)\n", (unsigned)n);
+	for (i = 0; (i < n) && (i < kProfileReportTop); ++i) {
+		ProfilePrintf("A%03X %8u\n",
+			(unsigned)ProfileOrder[i],
+			(unsigned)ProfileCopy.ATrapCount[ProfileOrder[i]]);
+	}
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    setProfiling
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setProfiling (JNIEnv * env, jclass class, jboolean value) {
+	if (value) {
+		ProfileClear = trueblnr;
+	}
+	ProfileWant = value;
 }
 
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    getProfileReport
+ * Signature: ()Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_name_osher_gil_minivmac_Core_getProfileReport (JNIEnv * env, jclass class) {
+	jstring report;
+
+	ProfileReport = malloc(kProfileReportSize);
+	if (NULL == ProfileReport) {
+		return NULL;
+	}
+	ProfileMakeReport();
+	report = (*env)->NewStringUTF(env, ProfileReport);
+	free(ProfileReport);
+	ProfileReport = NULL;
+
+	return report;
+}
+
+#endif
+
+#if 0
+#pragma mark -
+#pragma mark Turbo
+#endif
+
+/*
+	Turbo runs emulated ticks one after another with no waiting
+	for real time, like a headless run, with the sound stopped.
+	The screen is only looked at on ticks where a real tick has
+	gone by since it was last shown, so the conversion and the
+	upcall happen at most at the host's 60 frames a second however
+	many emulated ticks are run in between.
+*/
+
+LOCALPROC TurboNextTick(void)
+{
+	si5b TimeDiff;
+
+	GetCurrentTicks();
+	TimeDiff = GetTimeDiff();
+	if (TimeDiff >= 0) {
+		if (TimeDiff > 16 * MyInvTimeStep) {
+			InitNextTime();
+		} else {
+			IncrNextTime();
+		}
+		EmVideoDisable = falseblnr;
+	} else {
+		EmVideoDisable = trueblnr;
+	}
+
+	if (CheckDateTime()) {
+#if EnableDemoMsg
+		DemoModeSecondNotify();
+#endif
+	}
+
+	++TrueEmulatedTime;
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    setTurbo
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setTurbo (JNIEnv * env, jclass class, jboolean value) {
+	WantTurbo = (JNI_TRUE == value);
+	WakeEmulation();
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    isTurbo
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core_isTurbo (JNIEnv * env, jclass class) {
+	return WantTurbo?JNI_TRUE:JNI_FALSE;
+}
+
+#if 0
+#pragma mark -
+#pragma mark Emulation
+#endif
+
+LOCALPROC LeaveSpeedStopped(void)
+{
+#if MySoundEnabled
+	(*jEnv)->CallVoidMethod(jEnv, mCore, jMySoundStart);
+#endif
+
+    StartUpTimeAdjust();
+}
+
+LOCALPROC EnterSpeedStopped(void)
+{
+#if MySoundEnabled
+	(*jEnv)->CallVoidMethod(jEnv, mCore, jMySoundStop);
+#endif
+}
+
+FORWARDPROC StateRequestDo(void);
+
 LOCALPROC CheckForSavedTasks(void)
 {
+	StateRequestDo();
+
 	if (RequestMacOff) {
 		RequestMacOff = falseblnr;
 		if (AnyDiskInserted()) {
@@ -967,14 +1749,22 @@ LOCALPROC CheckForSavedTasks(void)
 		return;
 	}
 
-    if (CurSpeedStopped != (SpeedStopped ||
-    	(gBackgroundFlag && ! RunInBackground)))
     {
-        CurSpeedStopped = ! CurSpeedStopped;
-        if (CurSpeedStopped) {
-            EnterSpeedStopped();
-        } else {
-            LeaveSpeedStopped();
+        /* sound plays, and real time is kept, only at normal speed */
+        blnr WasNormal = ! (CurSpeedStopped || CurTurbo);
+
+        CurSpeedStopped = SpeedStopped ||
+            (gBackgroundFlag && ! RunInBackground);
+        if (CurTurbo != WantTurbo) {
+            CurTurbo = WantTurbo;
+            EmVideoDisable = falseblnr;
+        }
+        if (WasNormal != ! (CurSpeedStopped || CurTurbo)) {
+            if (WasNormal) {
+                EnterSpeedStopped();
+            } else {
+                LeaveSpeedStopped();
+            }
         }
     }
 
@@ -1023,6 +1813,9 @@ GLOBALOSGLUPROC DoneWithDrawingForTick(void)
 
 GLOBALOSGLUFUNC blnr ExtraTimeNotOver(void)
 {
+	if (HeadlessRun || CurTurbo) {
+		return falseblnr;
+	}
 	UpdateTrueEmulatedTime();
 	return TrueEmulatedTime == OnTrueTime;
 }
@@ -1030,8 +1823,14 @@ GLOBALOSGLUFUNC blnr ExtraTimeNotOver(void)
 
 GLOBALOSGLUPROC WaitForNextTick(void)
 {
+	if (HeadlessRun) {
+		/* before CheckForSavedTasks, so an autosave gets the new date */
+		HeadlessTickDone();
+	}
+
 label_retry:
     sleep(0);
+	InputQDrain();
 	CheckForSavedTasks();
 	if (ForceMacOff) {
 		return;
@@ -1039,18 +1838,26 @@ label_retry:
 
 	if (CurSpeedStopped) {
 		DoneWithDrawingForTick();
+		WaitForWake();
 		goto label_retry;
 	}
 
-	if (ExtraTimeNotOver()) {
-		struct timespec rqt;
-		struct timespec rmt;
+	if (HeadlessRun) {
+		HeadlessNextTick();
+		OnTrueTime = TrueEmulatedTime;
+		return;
+	}
 
+	if (CurTurbo) {
+		TurboNextTick();
+		OnTrueTime = TrueEmulatedTime;
+		return;
+	}
+
+	if (ExtraTimeNotOver()) {
 		si5b TimeDiff = GetTimeDiff();
 		if (TimeDiff < 0) {
-			rqt.tv_sec = 0;
-			rqt.tv_nsec = (- TimeDiff) * 1000;
-			(void) nanosleep(&rqt, &rmt);
+			WaitForWakeOrTimeout(- TimeDiff);
 		}
 		goto label_retry;
 	}
@@ -1082,6 +1889,1006 @@ label_retry:
 
 #include "PROGMAIN.h"
 
+#if 0
+#pragma mark -
+#pragma mark Save states
+#endif
+
+/*
+	A state file is a header and then frames. The first frame has
+	all of RAM, and each later one only the pages written since the
+	frame before it (see RAMDirty), so the RAM of a state is built
+	up by going through the frames in order. Every frame also has
+	the paths of the disk images in each drive and the rest of the
+	emulated machine, as written by EmulationStateSave, of which
+	only the last frame's count. What follows a frame header is
+	compressed with zlib, and a frame that doesn't come out whole,
+	from a save that was cut short, ends the state at the frame
+	before it. Everything is in host order, and the layout of the
+	machine state follows this build, so a state is only for
+	loading again by the same build on the same device. Loading
+	checks the header, the ROM, and that the machine state is the
+	size this build expects, before touching anything.
+
+	All the emulation thread does to save is take a snapshot
+	between ticks, copying the rest of the machine and the dirty
+	pages of RAM into StateJob. The writer thread compresses it and
+	writes it out. It keeps a copy of RAM as of the last snapshot,
+	so it can start a file with a whole frame at any time, which it
+	does for a file other than the one it last added to, and once
+	the frames after the first add up to more than the first.
+
+	The disk images are not part of the state. They have to be
+	unchanged when the state is loaded, so the writer flushes them
+	(Core.flushDisks) before writing a frame, and drops the frame
+	if a disk was written after its snapshot, whatever file it is
+	for. The autosave file, which is kept up to date every so many
+	ticks, is also deleted by the first write to a disk after a
+	snapshot, since it could no longer be loaded with the disks as
+	they are.
+
+	Requests from another thread are handed over in
+	CheckForSavedTasks and the caller waits for the result, which
+	for a save is once the frame is written. A queued save only
+	waits for the snapshot, or not at all if the writer is busy,
+	in which case the snapshot is taken once it is done.
+
+	A state to start from can be given before init. It is loaded
+	on the first tick, once the machine has been reset, and then
+	deleted, since the disks move on from it as soon as the machine
+	runs.
+*/
+
+#define kStateMagic 0x4D765354 /* 'MvST' */
+#define kStateFrameMagic 0x4D764672 /* 'MvFr' */
+#define kStateVersion 2
+#define kStateMaxPath 1024
+#define kStateMaxPathsSize (NumDrives * (sizeof(ui5b) + kStateMaxPath))
+
+typedef struct {
+	ui5b Magic;
+	ui5b Version;
+	ui5b ROMHash;
+	ui5b RAMSize;
+	ui5b PageSize;
+	ui5b MachineSize;
+} StateHeader;
+
+/*
+	followed by CompSize bytes of compressed: the paths, the machine
+	state, the page numbers and then the pages
+*/
+typedef struct {
+	ui5b Magic;
+	ui5b CompSize;
+	ui5b InsertedMask;
+	ui5b MacDate;
+	ui5b PathsSize;
+	ui5b NumPages;
+} StateFrameHeader;
+
+typedef struct {
+	char Path[kStateMaxPath];
+	blnr ForRequest;
+	blnr AllPages;
+	ui5r DiskGen;
+	StateFrameHeader h;
+	ui3p Data;
+} StateJob;
+
+LOCALVAR jmethodID jSonyInsertAt;
+LOCALVAR jmethodID jFlushDisks;
+LOCALVAR JavaVM *StateJVM = NULL;
+
+/* all guarded by StateMutex */
+LOCALVAR pthread_mutex_t StateMutex = PTHREAD_MUTEX_INITIALIZER;
+LOCALVAR pthread_cond_t StateCond = PTHREAD_COND_INITIALIZER;
+LOCALVAR blnr StateEmulationRunning = falseblnr;
+LOCALVAR pthread_t StateEmulationThread;
+LOCALVAR const char *StateRequestPath = NULL;
+LOCALVAR blnr StateRequestLoad;
+LOCALVAR blnr StateRequestTaken;
+LOCALVAR blnr StateRequestDone;
+LOCALVAR blnr StateRequestResult;
+LOCALVAR char *StateQueuedPath = NULL;
+LOCALVAR StateJob StateTheJob;
+LOCALVAR blnr StateJobPending = falseblnr;
+LOCALVAR blnr StateJobResult;
+LOCALVAR ui5r StateDiskGen = 0;
+LOCALVAR pthread_t StateWriterThread;
+LOCALVAR blnr StateWriterQuit;
+
+/* emulation thread only */
+LOCALVAR char *StateStartPath = NULL;
+LOCALVAR char *StateAutosavePath = NULL;
+LOCALVAR ui5r StateAutosaveTicks = 0;
+LOCALVAR ui5b StateAutosaveTime = 0;
+LOCALVAR blnr StateAllPages = trueblnr;
+LOCALVAR blnr StateDisksClean = falseblnr;
+LOCALVAR ui5r StateMachineSize = 0;
+LOCALVAR ui5r StateRAMSize;
+LOCALVAR ui5r StatePageSize;
+LOCALVAR ui5r StateNumPages;
+
+/* writer thread only, once allocated */
+LOCALVAR ui3p StateShadowRAM = nullpr;
+LOCALVAR ui3p StateCompBuf = nullpr;
+LOCALVAR ui5r StateCompBufSize;
+LOCALVAR ui5b *StateAllPageNums = NULL;
+LOCALVAR char StateWriterPath[kStateMaxPath] = "";
+LOCALVAR off_t StateWriterSize;
+LOCALVAR ui5r StateWriterFirst;
+LOCALVAR ui5r StateWriterLater;
+
+LOCALFUNC ui5r StateROMHash(void)
+{
+	/* FNV-1a */
+	ui3p p = ROM;
+	ui5r h = 2166136261UL;
+	ui5r i;
+
+	for (i = kROM_Size; i != 0; --i) {
+		h = (h ^ *p++) * 16777619UL;
+	}
+
+	return h;
+}
+
+LOCALFUNC ui5r StateMaxDataSize(void)
+{
+	return kStateMaxPathsSize + StateMachineSize
+		+ StateNumPages * (sizeof(ui5b) + StatePageSize);
+}
+
+LOCALFUNC blnr StateAllocBuffers(void)
+{
+	ui5r i;
+
+	if (nullpr == StateTheJob.Data) {
+		StateMachineSize = EmulationStateSize();
+		StateRAMSize = EmulationRAMSize();
+		StatePageSize = EmulationRAMPageSize();
+		StateNumPages = StateRAMSize / StatePageSize;
+		StateCompBufSize = compressBound(StateMaxDataSize());
+		StateTheJob.Data = (ui3p)malloc(StateMaxDataSize());
+		StateShadowRAM = (ui3p)malloc(StateRAMSize);
+		StateCompBuf = (ui3p)malloc(StateCompBufSize);
+		StateAllPageNums = (ui5b *)malloc(StateNumPages * sizeof(ui5b));
+		if ((nullpr == StateTheJob.Data)
+			|| (nullpr == StateShadowRAM)
+			|| (nullpr == StateCompBuf)
+			|| (NULL == StateAllPageNums))
+		{
+			free(StateTheJob.Data);
+			free(StateShadowRAM);
+			free(StateCompBuf);
+			free(StateAllPageNums);
+			StateTheJob.Data = nullpr;
+			StateShadowRAM = nullpr;
+			StateCompBuf = nullpr;
+			StateAllPageNums = NULL;
+			return falseblnr;
+		}
+		for (i = 0; i < StateNumPages; ++i) {
+			StateAllPageNums[i] = i;
+		}
+	}
+
+	return trueblnr;
+}
+
+/* path of the image in each drive, as Core knows it, NULL if empty */
+LOCALPROC StateGetDiskPaths(jstring *paths)
+{
+	jclass class = (*jEnv)->GetObjectClass(jEnv, mCore);
+	jfieldID fid = (*jEnv)->GetFieldID(jEnv, class,
+		"diskPath", "[Ljava/lang/String;");
+	jobjectArray a = (*jEnv)->GetObjectField(jEnv, mCore, fid);
+	tDrive i;
+
+	for (i = 0; i < NumDrives; ++i) {
+		paths[i] = (NULL == a) ? NULL
+			: (*jEnv)->GetObjectArrayElement(jEnv, a, i);
+	}
+	(*jEnv)->DeleteLocalRef(jEnv, a);
+	(*jEnv)->DeleteLocalRef(jEnv, class);
+}
+
+LOCALPROC StateFreeDiskPaths(jstring *paths)
+{
+	tDrive i;
+
+	for (i = 0; i < NumDrives; ++i) {
+		if (NULL != paths[i]) {
+			(*jEnv)->DeleteLocalRef(jEnv, paths[i]);
+		}
+	}
+}
+
+/* the paths as they go in a frame, returns their size, 0 if too long */
+LOCALFUNC ui5r StatePutDiskPaths(ui3p p)
+{
+	jstring paths[NumDrives];
+	ui3p p0 = p;
+	tDrive i;
+	blnr IsOk = trueblnr;
+
+	StateGetDiskPaths(paths);
+	for (i = 0; i < NumDrives; ++i) {
+		ui5b L = 0;
+
+		if (NULL != paths[i]) {
+			const char *s =
+				(*jEnv)->GetStringUTFChars(jEnv, paths[i], NULL);
+			L = strlen(s);
+			if (L >= kStateMaxPath) {
+				IsOk = falseblnr; /* couldn't be loaded again */
+				L = 0;
+			} else {
+				MyMoveBytes((anyp)s, (anyp)(p + sizeof(ui5b)), L);
+			}
+			(*jEnv)->ReleaseStringUTFChars(jEnv, paths[i], s);
+		}
+		MyMoveBytes((anyp)&L, (anyp)p, sizeof(ui5b));
+		p += sizeof(ui5b) + L;
+	}
+	StateFreeDiskPaths(paths);
+
+	return IsOk ? (p - p0) : 0;
+}
+
+LOCALFUNC blnr StateCheckDiskPaths(ui3p p, ui5r left)
+{
+	tDrive i;
+
+	for (i = 0; i < NumDrives; ++i) {
+		ui5b L;
+
+		if (left < sizeof(ui5b)) {
+			return falseblnr;
+		}
+		MyMoveBytes((anyp)p, (anyp)&L, sizeof(ui5b));
+		left -= sizeof(ui5b);
+		if ((L > left) || (L >= kStateMaxPath)) {
+			return falseblnr;
+		}
+		left -= L;
+		p += sizeof(ui5b) + L;
+	}
+
+	return 0 == left;
+}
+
+LOCALFUNC blnr StateWriteAll(int fd, ui3p p, ui5r n)
+{
+	while (n > 0) {
+		ssize_t k = write(fd, p, n);
+		if (k > 0) {
+			p += k;
+			n -= k;
+		} else if ((k < 0) && (EINTR == errno)) {
+			/* interrupted, try again */
+		} else {
+			return falseblnr;
+		}
+	}
+
+	return trueblnr;
+}
+
+LOCALFUNC ui3p StateReadFile(const char *path, ui5r *n)
+{
+	struct stat st;
+	ui3p buf = nullpr;
+	int fd = open(path, O_RDONLY);
+
+	if (fd < 0) {
+		return nullpr;
+	}
+	if ((0 == fstat(fd, &st))
+		&& (st.st_size >= sizeof(StateHeader))
+		&& (st.st_size < 0x7FFFFFFF))
+	{
+		ui5r L = (ui5r)st.st_size;
+		ui5r done = 0;
+
+		buf = (ui3p)malloc(L);
+		while ((nullpr != buf) && (done < L)) {
+			ssize_t k = read(fd, buf + done, L - done);
+			if (k > 0) {
+				done += k;
+			} else if ((k < 0) && (EINTR == errno)) {
+				/* interrupted, try again */
+			} else {
+				free(buf);
+				buf = nullpr;
+			}
+		}
+		*n = L;
+	}
+	(void) close(fd);
+
+	return buf;
+}
+
+/* called with StateMutex locked, after the disks are flushed */
+LOCALFUNC blnr StateJobStillGood(StateJob *j)
+{
+	/* no disk written since the snapshot */
+	return j->DiskGen == StateDiskGen;
+}
+
+LOCALFUNC blnr StateCompress(StateJob *j, blnr Full)
+{
+	z_stream z;
+	ui5r RestSize = j->h.PathsSize + StateMachineSize;
+	blnr IsOk;
+
+	memset(&z, 0, sizeof(z));
+	if (Z_OK != deflateInit(&z, Z_BEST_SPEED)) {
+		return falseblnr;
+	}
+	z.next_out = StateCompBuf;
+	z.avail_out = StateCompBufSize;
+
+	/* with room for all of it, each call takes all its input */
+	if (Full) {
+		z.next_in = j->Data;
+		z.avail_in = RestSize;
+		IsOk = (Z_OK == deflate(&z, Z_NO_FLUSH));
+		z.next_in = (ui3p)StateAllPageNums;
+		z.avail_in = StateNumPages * sizeof(ui5b);
+		IsOk = IsOk && (Z_OK == deflate(&z, Z_NO_FLUSH));
+		z.next_in = StateShadowRAM;
+		z.avail_in = StateRAMSize;
+	} else {
+		z.next_in = j->Data;
+		z.avail_in = RestSize
+			+ j->h.NumPages * (sizeof(ui5b) + StatePageSize);
+		IsOk = trueblnr;
+	}
+	IsOk = IsOk && (Z_STREAM_END == deflate(&z, Z_FINISH));
+	j->h.CompSize = z.total_out;
+	(void) deflateEnd(&z);
+
+	return IsOk;
+}
+
+LOCALFUNC blnr StateWriteNewFile(StateJob *j)
+{
+	/* write to a new file and rename it, so never half a frame */
+	char tmp[kStateMaxPath + 8];
+	StateHeader h;
+	int fd;
+	blnr IsOk;
+
+	if (snprintf(tmp, sizeof(tmp), "%s.tmp", j->Path) >= sizeof(tmp)) {
+		return falseblnr;
+	}
+	fd = open(tmp, O_WRONLY | O_CREAT | O_TRUNC, 0600);
+	if (fd < 0) {
+		return falseblnr;
+	}
+
+	h.Magic = kStateMagic;
+	h.Version = kStateVersion;
+	h.ROMHash = StateROMHash();
+	h.RAMSize = StateRAMSize;
+	h.PageSize = StatePageSize;
+	h.MachineSize = StateMachineSize;
+	IsOk = StateWriteAll(fd, (ui3p)&h, sizeof(h))
+		&& StateWriteAll(fd, (ui3p)&j->h, sizeof(j->h))
+		&& StateWriteAll(fd, StateCompBuf, j->h.CompSize)
+		&& (0 == fsync(fd));
+	if (0 != close(fd)) {
+		IsOk = falseblnr;
+	}
+
+	pthread_mutex_lock(&StateMutex);
+	IsOk = IsOk && StateJobStillGood(j) && (0 == rename(tmp, j->Path));
+	pthread_mutex_unlock(&StateMutex);
+
+	if (IsOk) {
+		StateWriterSize = sizeof(h) + sizeof(j->h) + j->h.CompSize;
+		StateWriterFirst = j->h.CompSize;
+		StateWriterLater = 0;
+	} else {
+		(void) unlink(tmp);
+	}
+
+	return IsOk;
+}
+
+LOCALFUNC blnr StateAppendToFile(StateJob *j)
+{
+	int fd;
+	blnr IsOk;
+
+	/*
+		write without the lock, the emulation thread takes it every
+		tick. If the file is deleted meanwhile, this only writes to
+		the deleted file.
+	*/
+	fd = open(j->Path, O_WRONLY | O_APPEND);
+	if (fd < 0) {
+		return falseblnr;
+	}
+	IsOk = StateWriteAll(fd, (ui3p)&j->h, sizeof(j->h))
+		&& StateWriteAll(fd, StateCompBuf, j->h.CompSize)
+		&& (0 == fsync(fd));
+
+	pthread_mutex_lock(&StateMutex);
+	IsOk = IsOk && StateJobStillGood(j);
+	if (! IsOk) {
+		/* never leave half a frame, or one that went stale */
+		(void) ftruncate(fd, StateWriterSize);
+	}
+	pthread_mutex_unlock(&StateMutex);
+
+	if (0 != close(fd)) {
+		IsOk = falseblnr;
+	}
+
+	if (IsOk) {
+		StateWriterSize += sizeof(j->h) + j->h.CompSize;
+		StateWriterLater += j->h.CompSize;
+	}
+
+	return IsOk;
+}
+
+/* on the writer thread */
+LOCALFUNC blnr StateWriteJob(JNIEnv *env, StateJob *j)
+{
+	ui3p nums = j->Data + j->h.PathsSize + StateMachineSize;
+	ui3p pages = nums + j->h.NumPages * sizeof(ui5b);
+	struct stat st;
+	blnr Full;
+	blnr IsOk;
+	ui5r i;
+
+	/* bring the copy of RAM up to this snapshot */
+	for (i = 0; i < j->h.NumPages; ++i) {
+		ui5b k;
+
+		MyMoveBytes((anyp)(nums + i * sizeof(ui5b)), (anyp)&k,
+			sizeof(ui5b));
+		MyMoveBytes((anyp)(pages + i * StatePageSize),
+			(anyp)(StateShadowRAM + k * StatePageSize),
+			StatePageSize);
+	}
+
+	/* only add to the file if it ends with the snapshot before */
+	Full = j->AllPages
+		|| (0 != strcmp(j->Path, StateWriterPath))
+		|| (StateWriterLater > StateWriterFirst)
+		|| (0 != stat(j->Path, &st))
+		|| (st.st_size != StateWriterSize);
+	if (Full) {
+		j->h.NumPages = StateNumPages;
+	}
+	StateWriterPath[0] = 0;
+
+	IsOk = StateCompress(j, Full);
+
+	/* everything written to the disks up to the snapshot */
+	(*env)->CallVoidMethod(env, mCore, jFlushDisks);
+
+	if (IsOk) {
+		IsOk = Full ? StateWriteNewFile(j) : StateAppendToFile(j);
+	}
+	if (IsOk) {
+		strcpy(StateWriterPath, j->Path);
+	}
+
+	return IsOk;
+}
+
+LOCALFUNC void *StateWriterMain(void *arg)
+{
+	JNIEnv *env;
+	blnr v;
+
+	UnusedParam(arg);
+	if (JNI_OK != (*StateJVM)->AttachCurrentThread(StateJVM,
+		(void *)&env, NULL))
+	{
+		return NULL;
+	}
+
+	pthread_mutex_lock(&StateMutex);
+	for (;;) {
+		while ((! StateJobPending) && ! StateWriterQuit) {
+			pthread_cond_wait(&StateCond, &StateMutex);
+		}
+		if (! StateJobPending) {
+			break;
+		}
+		pthread_mutex_unlock(&StateMutex);
+
+		v = StateWriteJob(env, &StateTheJob);
+
+		pthread_mutex_lock(&StateMutex);
+		StateJobResult = v;
+		if (StateTheJob.ForRequest) {
+			StateRequestResult = v;
+			StateRequestDone = trueblnr;
+		}
+		StateJobPending = falseblnr;
+		pthread_cond_broadcast(&StateCond);
+		/* in case a request is waiting for the writer */
+		WakeEmulation();
+	}
+	pthread_mutex_unlock(&StateMutex);
+
+	(void) (*StateJVM)->DetachCurrentThread(StateJVM);
+
+	return NULL;
+}
+
+/*
+	Copy what the writer needs into StateTheJob and hand it over.
+	On the emulation thread, with StateMutex locked and the writer
+	idle.
+*/
+LOCALFUNC blnr StateSnapshot(const char *path, blnr ForRequest)
+{
+	StateJob *j = &StateTheJob;
+	ui3p p;
+
+	if ((strlen(path) >= kStateMaxPath) || ! StateAllocBuffers()) {
+		return falseblnr;
+	}
+
+	j->h.Magic = kStateFrameMagic;
+	j->h.InsertedMask = vSonyInsertedMask;
+	j->h.MacDate = CurMacDateInSeconds;
+	j->h.PathsSize = StatePutDiskPaths(j->Data);
+	if (0 == j->h.PathsSize) {
+		return falseblnr;
+	}
+	p = j->Data + j->h.PathsSize;
+	EmulationStateSave(p);
+	p += StateMachineSize;
+	j->h.NumPages = EmulationRAMSave(p, StateAllPages);
+	j->AllPages = StateAllPages;
+	StateAllPages = falseblnr;
+
+	strcpy(j->Path, path);
+	j->ForRequest = ForRequest;
+	j->DiskGen = StateDiskGen;
+	StateDisksClean = trueblnr;
+
+	StateJobPending = trueblnr;
+	pthread_cond_broadcast(&StateCond);
+
+	return trueblnr;
+}
+
+/* called by vSonyTransfer, for every write to a disk */
+LOCALPROC StateNoteDiskWrite(void)
+{
+	if (StateDisksClean) {
+		StateDisksClean = falseblnr;
+		pthread_mutex_lock(&StateMutex);
+		++StateDiskGen;
+		if (NULL != StateAutosavePath) {
+			(void) unlink(StateAutosavePath);
+		}
+		pthread_mutex_unlock(&StateMutex);
+	}
+}
+
+/*
+	Put the images the state was saved with back in the same
+	drives, leaving alone any that are already there.
+*/
+LOCALFUNC blnr StateSetDisks(ui3p p)
+{
+	jstring paths[NumDrives];
+	tDrive i;
+	blnr IsOk = trueblnr;
+
+	StateGetDiskPaths(paths);
+	for (i = 0; i < NumDrives; ++i) {
+		ui5b L;
+		char want[kStateMaxPath];
+		blnr Same;
+
+		MyMoveBytes((anyp)p, (anyp)&L, sizeof(ui5b));
+		p += sizeof(ui5b);
+		MyMoveBytes((anyp)p, (anyp)want, L);
+		want[L] = 0;
+		p += L;
+
+		if (NULL == paths[i]) {
+			Same = (0 == L);
+		} else {
+			const char *s =
+				(*jEnv)->GetStringUTFChars(jEnv, paths[i], NULL);
+			Same = (0 == strcmp(s, want));
+			(*jEnv)->ReleaseStringUTFChars(jEnv, paths[i], s);
+		}
+
+		if (! Same) {
+			if (vSonyIsInserted(i)) {
+				(void) vSonyEject(i);
+			}
+			if (0 != L) {
+				jstring jpath = (*jEnv)->NewStringUTF(jEnv, want);
+				if (! (*jEnv)->CallBooleanMethod(jEnv, mCore,
+					jSonyInsertAt, jpath, (jint)i))
+				{
+					IsOk = falseblnr;
+				}
+				(*jEnv)->DeleteLocalRef(jEnv, jpath);
+			}
+		}
+	}
+	StateFreeDiskPaths(paths);
+
+	return IsOk;
+}
+
+/*
+	Go through the frames, building up RAM in ram and keeping the
+	rest of the last whole frame in rest. Returns the number of
+	frames that came out whole.
+*/
+LOCALFUNC ui5r StateReadFrames(ui3p p, ui5r left, ui3p data,
+	ui3p ram, ui3p rest, StateFrameHeader *last)
+{
+	StateFrameHeader fh;
+	ui5r frames = 0;
+
+	while (left >= sizeof(fh)) {
+		uLongf L;
+		ui5r DataSize;
+		ui3p nums;
+		ui3p pages;
+		ui5r i;
+		blnr IsOk = trueblnr;
+
+		MyMoveBytes((anyp)p, (anyp)&fh, sizeof(fh));
+		p += sizeof(fh);
+		left -= sizeof(fh);
+		if ((kStateFrameMagic != fh.Magic)
+			|| (fh.CompSize > left)
+			|| (fh.PathsSize > kStateMaxPathsSize)
+			|| (fh.NumPages > StateNumPages)
+			|| ((0 == frames) && (StateNumPages != fh.NumPages)))
+		{
+			break;
+		}
+		DataSize = fh.PathsSize + StateMachineSize
+			+ fh.NumPages * (sizeof(ui5b) + StatePageSize);
+		L = DataSize;
+		if ((Z_OK != uncompress(data, &L, p, fh.CompSize))
+			|| (L != DataSize)
+			|| ! StateCheckDiskPaths(data, fh.PathsSize))
+		{
+			break;
+		}
+
+		/* the first frame has every page, in order */
+		nums = data + fh.PathsSize + StateMachineSize;
+		pages = nums + fh.NumPages * sizeof(ui5b);
+		for (i = 0; i < fh.NumPages; ++i) {
+			ui5b k;
+
+			MyMoveBytes((anyp)(nums + i * sizeof(ui5b)), (anyp)&k,
+				sizeof(ui5b));
+			if ((k >= StateNumPages)
+				|| ((0 == frames) && (k != i)))
+			{
+				IsOk = falseblnr;
+			}
+		}
+		if (! IsOk) {
+			break;
+		}
+
+		for (i = 0; i < fh.NumPages; ++i) {
+			ui5b k;
+
+			MyMoveBytes((anyp)(nums + i * sizeof(ui5b)), (anyp)&k,
+				sizeof(ui5b));
+			MyMoveBytes((anyp)(pages + i * StatePageSize),
+				(anyp)(ram + k * StatePageSize), StatePageSize);
+		}
+		MyMoveBytes((anyp)data, (anyp)rest,
+			fh.PathsSize + StateMachineSize);
+		*last = fh;
+		++frames;
+
+		p += fh.CompSize;
+		left -= fh.CompSize;
+	}
+
+	return frames;
+}
+
+LOCALFUNC blnr StateLoadFrom(const char *path)
+{
+	ui5r n;
+	StateHeader h;
+	StateFrameHeader fh;
+	ui3p data;
+	ui3p ram;
+	ui3p rest;
+	blnr IsOk = falseblnr;
+	ui3p buf = StateReadFile(path, &n);
+
+	if ((nullpr == buf) || ! StateAllocBuffers()) {
+		free(buf);
+		return falseblnr;
+	}
+
+	data = (ui3p)malloc(StateMaxDataSize());
+	ram = (ui3p)malloc(StateRAMSize);
+	rest = (ui3p)malloc(kStateMaxPathsSize + StateMachineSize);
+
+	MyMoveBytes((anyp)buf, (anyp)&h, sizeof(h));
+	if ((nullpr != data) && (nullpr != ram) && (nullpr != rest)
+		&& (kStateMagic == h.Magic)
+		&& (kStateVersion == h.Version)
+		&& (StateROMHash() == h.ROMHash)
+		&& (StateRAMSize == h.RAMSize)
+		&& (StatePageSize == h.PageSize)
+		&& (StateMachineSize == h.MachineSize))
+	{
+		IsOk = (0 != StateReadFrames(buf + sizeof(h), n - sizeof(h),
+			data, ram, rest, &fh));
+	}
+
+	if (IsOk) {
+		IsOk = StateSetDisks(rest)
+			&& (vSonyInsertedMask == fh.InsertedMask);
+	}
+
+	if (IsOk) {
+		EmulationRAMLoad(ram);
+		EmulationStateLoad(rest + fh.PathsSize);
+		/* the writer's copy of RAM is no good any more */
+		StateAllPages = trueblnr;
+
+		NeedWholeScreenDraw = trueblnr;
+		if (HeadlessRun) {
+			/* headless time is emulated time, go on from the state */
+			CurMacDateInSeconds = fh.MacDate;
+		} else {
+			StartUpTimeAdjust();
+		}
+	}
+
+	free(rest);
+	free(ram);
+	free(data);
+	free(buf);
+
+	return IsOk;
+}
+
+LOCALPROC StateRequestDo(void)
+{
+	if (NULL != StateStartPath) {
+		if (! StateLoadFrom(StateStartPath)) {
+			/* just go on from the reset */
+		}
+		(void) unlink(StateStartPath);
+		free(StateStartPath);
+		StateStartPath = NULL;
+	}
+
+	pthread_mutex_lock(&StateMutex);
+	if ((NULL != StateRequestPath) && ! StateRequestTaken) {
+		if (StateRequestLoad) {
+			StateRequestTaken = trueblnr;
+			StateRequestResult = StateLoadFrom(StateRequestPath);
+			StateRequestDone = trueblnr;
+			pthread_cond_broadcast(&StateCond);
+		} else if (! StateJobPending) {
+			StateRequestTaken = trueblnr;
+			if (! StateSnapshot(StateRequestPath, trueblnr)) {
+				StateRequestResult = falseblnr;
+				StateRequestDone = trueblnr;
+				pthread_cond_broadcast(&StateCond);
+			}
+		} else {
+			/* the writer wakes us when it is done */
+		}
+	}
+
+	if ((NULL != StateQueuedPath) && ! StateJobPending) {
+		(void) StateSnapshot(StateQueuedPath, falseblnr);
+		free(StateQueuedPath);
+		StateQueuedPath = NULL;
+		pthread_cond_broadcast(&StateCond);
+	}
+
+	if ((NULL != StateAutosavePath) && ! CurSpeedStopped
+		&& ! StateWriterQuit)
+	{
+		/*
+			counted in emulated ticks, this can be called
+			several times for one
+		*/
+		if (((si5b)(OnTrueTime - StateAutosaveTime) >= 0)
+			&& ! StateJobPending)
+		{
+			(void) StateSnapshot(StateAutosavePath, falseblnr);
+			StateAutosaveTime = OnTrueTime + StateAutosaveTicks;
+		}
+	}
+	pthread_mutex_unlock(&StateMutex);
+}
+
+LOCALPROC StateSetEmulationRunning(blnr v)
+{
+	pthread_mutex_lock(&StateMutex);
+	StateEmulationRunning = v;
+	StateEmulationThread = pthread_self();
+	if (v) {
+		StateWriterQuit = falseblnr;
+		if (0 != pthread_create(&StateWriterThread, NULL,
+			StateWriterMain, NULL))
+		{
+			StateWriterQuit = trueblnr;
+		}
+	} else {
+		if ((NULL != StateRequestPath) && ! StateRequestTaken) {
+			/* too late, nobody is going to do it */
+			StateRequestResult = falseblnr;
+			StateRequestDone = trueblnr;
+		}
+		free(StateQueuedPath);
+		StateQueuedPath = NULL;
+		pthread_cond_broadcast(&StateCond);
+	}
+	pthread_mutex_unlock(&StateMutex);
+
+	if ((! v) && ! StateWriterQuit) {
+		/* let it finish the last snapshot */
+		pthread_mutex_lock(&StateMutex);
+		StateWriterQuit = trueblnr;
+		pthread_cond_broadcast(&StateCond);
+		pthread_mutex_unlock(&StateMutex);
+		(void) pthread_join(StateWriterThread, NULL);
+
+		if ((NULL != StateAutosavePath) && ! HeadlessRun) {
+			/* the machine was turned off, nothing to go back to */
+			(void) unlink(StateAutosavePath);
+		}
+	}
+}
+
+LOCALFUNC jboolean StateRequest(JNIEnv *env, jstring jpath, blnr Load)
+{
+	blnr v = falseblnr;
+	const char *path = (*env)->GetStringUTFChars(env, jpath, NULL);
+
+	pthread_mutex_lock(&StateMutex);
+	if ((! StateEmulationRunning) || StateWriterQuit) {
+		/* nothing to save, or load into */
+	} else if (pthread_equal(pthread_self(), StateEmulationThread)) {
+		/* e.g. from a callback, already between ticks */
+		if (Load) {
+			v = StateLoadFrom(path);
+		} else {
+			while (StateJobPending) {
+				pthread_cond_wait(&StateCond, &StateMutex);
+			}
+			if (StateSnapshot(path, falseblnr)) {
+				while (StateJobPending) {
+					pthread_cond_wait(&StateCond, &StateMutex);
+				}
+				v = StateJobResult;
+			}
+		}
+	} else {
+		while (StateEmulationRunning && (NULL != StateRequestPath)) {
+			pthread_cond_wait(&StateCond, &StateMutex);
+		}
+		if (StateEmulationRunning) {
+			StateRequestPath = path;
+			StateRequestLoad = Load;
+			StateRequestTaken = falseblnr;
+			StateRequestDone = falseblnr;
+			WakeEmulation();
+			while (! StateRequestDone) {
+				pthread_cond_wait(&StateCond, &StateMutex);
+			}
+			v = StateRequestResult;
+			StateRequestPath = NULL;
+			pthread_cond_broadcast(&StateCond);
+		}
+	}
+	pthread_mutex_unlock(&StateMutex);
+
+	(*env)->ReleaseStringUTFChars(env, jpath, path);
+
+	return v ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _saveState
+ * Signature: (Ljava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core__1saveState (JNIEnv * env, jclass class, jstring path) {
+	return StateRequest(env, path, falseblnr);
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _queueSaveState
+ * Signature: (Ljava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core__1queueSaveState (JNIEnv * env, jclass class, jstring jpath) {
+	blnr v = falseblnr;
+	const char *path = (*env)->GetStringUTFChars(env, jpath, NULL);
+
+	pthread_mutex_lock(&StateMutex);
+	if (StateEmulationRunning && ! StateWriterQuit
+		&& (strlen(path) < kStateMaxPath))
+	{
+		/* replaces one not taken yet */
+		free(StateQueuedPath);
+		StateQueuedPath = strdup(path);
+		v = (NULL != StateQueuedPath);
+		if (v && ! pthread_equal(pthread_self(), StateEmulationThread)) {
+			WakeEmulation();
+			while (StateEmulationRunning && (NULL != StateQueuedPath)
+				&& ! StateJobPending)
+			{
+				pthread_cond_wait(&StateCond, &StateMutex);
+			}
+		}
+	}
+	pthread_mutex_unlock(&StateMutex);
+
+	(*env)->ReleaseStringUTFChars(env, jpath, path);
+
+	return v ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _loadState
+ * Signature: (Ljava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core__1loadState (JNIEnv * env, jclass class, jstring path) {
+	return StateRequest(env, path, trueblnr);
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _setStartState
+ * Signature: (Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core__1setStartState (JNIEnv * env, jclass class, jstring path) {
+	const char *p = (*env)->GetStringUTFChars(env, path, NULL);
+
+	free(StateStartPath);
+	StateStartPath = strdup(p);
+	(*env)->ReleaseStringUTFChars(env, path, p);
+}
+
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _setAutosave
+ * Signature: (Ljava/lang/String;I)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core__1setAutosave (JNIEnv * env, jclass class, jstring path, jint seconds) {
+	const char *p = (*env)->GetStringUTFChars(env, path, NULL);
+
+	free(StateAutosavePath);
+	StateAutosavePath = strdup(p);
+	(*env)->ReleaseStringUTFChars(env, path, p);
+	StateAutosaveTicks = (ui5r)seconds * 60;
+	StateAutosaveTime = OnTrueTime + StateAutosaveTicks;
+}
+
 LOCALPROC ZapOSGLUVars(void)
 {
     //InitDrives();
@@ -1154,6 +2961,7 @@ LOCALPROC UnallocMyMemory(void)
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setWantMacReset (JNIEnv * env, jclass class) {
 	WantMacReset = trueblnr;
+	WakeEmulation();
 }
 
 /*
@@ -1163,6 +2971,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setWantMacReset (JNIEnv
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setWantMacInterrupt (JNIEnv * env, jclass class) {
 	WantMacInterrupt = trueblnr;
+	WakeEmulation();
 }
 
 /*
@@ -1172,6 +2981,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setWantMacInterrupt (JN
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setRequestMacOff (JNIEnv * env, jclass class) {
     RequestMacOff = trueblnr;
+	WakeEmulation();
 }
 
 /*
@@ -1181,6 +2991,7 @@ JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setRequestMacOff (JNIEn
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core__1resumeEmulation (JNIEnv * env, jclass class) {
 	gBackgroundFlag = falseblnr;
+	WakeEmulation();
 }
 
 /*
@@ -1208,6 +3019,7 @@ JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core_isPaused (JNIEnv *
  */
 JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core_setSpeed (JNIEnv * env, jclass class, jint value) {
 	SpeedValue = (ui3b)value;
+	WakeEmulation();
 }
 
 /*
@@ -1219,6 +3031,17 @@ JNIEXPORT jint JNICALL Java_name_osher_gil_minivmac_Core_getSpeed (JNIEnv * env,
 	return (jint)SpeedValue;
 }
 
+/*
+ * Class:     name_osher_gil_minivmac_Core
+ * Method:    _setIdleSleep
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_name_osher_gil_minivmac_Core__1setIdleSleep (JNIEnv * env, jclass class, jboolean value) {
+#if EnableIdleSleep
+	WantIdleSleep = (JNI_TRUE == value);
+#endif
+}
+
 #if 0
 #pragma mark -
 #pragma mark Misc
@@ -1283,7 +3106,7 @@ LOCALFUNC blnr InitOSGLU(void * romData, size_t romSize)
 #endif
             if (InitLocationDat())
 #if MySoundEnabled
-                if ((*jEnv)->CallBooleanMethod(jEnv, mCore, jMySoundInit))
+                if (MySound_Init())
 #endif
                 if (Screen_Init())
                     //if (CreateMainWindow())
@@ -1320,6 +3143,11 @@ LOCALPROC UnInitOSGLU(void)
 #endif
     UnInitDrives();
 
+	if (NULL != jScreenBuffer) {
+		(*jEnv)->DeleteGlobalRef(jEnv, jScreenBuffer);
+		jScreenBuffer = NULL;
+	}
+
 #if dbglog_HAVE
     dbglog_close();
 #endif
@@ -1353,25 +3181,28 @@ JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core_init (JNIEnv * env,
 		jSonyGetName = (*env)->GetMethodID(env, this, "sonyGetName", "(I)Ljava/lang/String;");
 		jSonyMakeNewDisk = (*env)->GetMethodID(env, this, "sonyMakeNewDisk", "(ILjava/lang/String;)I");
         jSonyInsert2 = (*env)->GetMethodID(env, this, "sonyInsert2", "(Ljava/lang/String;)Z");
+        jSonyInsertAt = (*env)->GetMethodID(env, this, "sonyInsertAt", "(Ljava/lang/String;I)Z");
+		jFlushDisks = (*env)->GetMethodID(env, this, "flushDisks", "()V");
 		jWarnMsg = (*env)->GetMethodID(env, this, "warnMsg", "(Ljava/lang/String;Ljava/lang/String;)V");
 		jInitScreen = (*env)->GetMethodID(env, this, "initScreen", "()V");
 		jUpdateScreen = (*env)->GetMethodID(env, this, "updateScreen", "(IIII)V");
-		jPlaySound = (*env)->GetMethodID(env, this, "playSound", "([B)I");
-        jMySoundInit = (*env)->GetMethodID(env, this, "MySound_Init", "()Z");
+		jPlaySound = (*env)->GetMethodID(env, this, "playSound", "(II)I");
+        jMySoundInit = (*env)->GetMethodID(env, this, "MySound_Init", "(Ljava/nio/ByteBuffer;)Z");
         jMySoundUnInit = (*env)->GetMethodID(env, this, "MySound_UnInit", "()V");
 		jMySoundStart = (*env)->GetMethodID(env, this, "MySound_Start", "()V");
 		jMySoundStop = (*env)->GetMethodID(env, this, "MySound_Stop", "()V");
+		(void) (*env)->GetJavaVM(env, &StateJVM);
 
 		// initialize fields
 		jfieldID sDiskPath, sDiskFile, sNumInsertedDisks, sInitOk;
 		sDiskPath = (*env)->GetFieldID(env, this, "diskPath", "[Ljava/lang/String;");
-		sDiskFile = (*env)->GetFieldID(env, this, "diskFile", "[Ljava/io/RandomAccessFile;");
+		sDiskFile = (*env)->GetFieldID(env, this, "diskFile", "[Lname/osher/gil/minivmac/IDiskImage;");
 		sNumInsertedDisks = (*env)->GetFieldID(env, this, "numInsertedDisks", "I");
 		sInitOk = (*env)->GetFieldID(env, this, "initOk", "Z");
 
 		// init drives
 		jobjectArray diskPath = (*env)->NewObjectArray(env, NumDrives, (*env)->FindClass(env, "java/lang/String"), NULL);
-		jobjectArray diskFile = (*env)->NewObjectArray(env, NumDrives, (*env)->FindClass(env, "java/io/RandomAccessFile"), NULL);
+		jobjectArray diskFile = (*env)->NewObjectArray(env, NumDrives, (*env)->FindClass(env, "name/osher/gil/minivmac/IDiskImage"), NULL);
 		(*env)->SetIntField(env, mCore, sNumInsertedDisks, 0);
 		(*env)->SetObjectField(env, mCore, sDiskPath, diskPath);
 		(*env)->SetObjectField(env, mCore, sDiskFile, diskFile);
@@ -1381,7 +3212,9 @@ JNIEXPORT jboolean JNICALL Java_name_osher_gil_minivmac_Core_init (JNIEnv * env,
 		// init ok
 		(*env)->SetBooleanField(env, mCore, sInitOk, JNI_TRUE);
 
+		StateSetEmulationRunning(trueblnr);
 		ProgramMain();
+		StateSetEmulationRunning(falseblnr);
 	}
 	(*env)->SetBooleanField(env, mCore, sInitOk, JNI_FALSE);
 	UnInitOSGLU();
@@ -1405,7 +3238,9 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
 
 	nativeCrashed = (*jEnv)->GetStaticMethodID(jEnv, jClass, "nativeCrashed", "()V");
 
+#ifdef __ANDROID__
 	// Try to catch crashes...
+	// (not on a desktop JVM, which needs these signals itself)
 	struct sigaction handler;
 	memset(&handler, 0, sizeof(sigaction));
 	handler.sa_sigaction = android_sigaction;
@@ -1418,6 +3253,7 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
 	CATCHSIG(SIGSEGV);
 	//CATCHSIG(SIGSTKFLT);
 	CATCHSIG(SIGPIPE);
+#endif
 
 	return JNI_VERSION_1_2;
 }
@@ -0,0 +1,202 @@
+/*
+	M68KDISP.h
+
+	Copyright (C) 2009 Bernd Schmidt, Paul C. Pratt
+
+	You can redistribute this file and/or modify it under the terms
+	of version 2 of the GNU General Public License as published by
+	the Free Software Foundation.  You should have received a copy
+	of the license along with this file; see the file COPYING.
+
+	This file is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	license for more details.
+*/
+
+/*
+	M68K instruction DISPatch list
+
+	The handler in MINEM68K.c for each kIKind of M68KITAB.h, in
+	the same order. Included more than once, with OpDispatchEntry
+	defined to build the table wanted.
+*/
+
+OpDispatchEntry(DoCodeTst, Tst)
+OpDispatchEntry(DoCodeCmpB, CmpB)
+OpDispatchEntry(DoCodeCmpW, CmpW)
+OpDispatchEntry(DoCodeCmpL, CmpL)
+OpDispatchEntry(DoCodeBccB, BccB)
+OpDispatchEntry(DoCodeBccW, BccW)
+OpDispatchEntry(DoCodeBraB, BraB)
+OpDispatchEntry(DoCodeBraW, BraW)
+OpDispatchEntry(DoCodeDBcc, DBcc)
+OpDispatchEntry(DoCodeDBF, DBF)
+OpDispatchEntry(DoCodeSwap, Swap)
+OpDispatchEntry(DoCodeMoveL, MoveL)
+OpDispatchEntry(DoCodeMoveW, MoveW)
+OpDispatchEntry(DoCodeMoveB, MoveB)
+OpDispatchEntry(DoCodeMoveA, MoveAL)
+OpDispatchEntry(DoCodeMoveA, MoveAW)
+OpDispatchEntry(DoCodeMoveQ, MoveQ)
+OpDispatchEntry(DoCodeAddB, AddB)
+OpDispatchEntry(DoCodeAddW, AddW)
+OpDispatchEntry(DoCodeAddL, AddL)
+OpDispatchEntry(DoCodeSubB, SubB)
+OpDispatchEntry(DoCodeSubW, SubW)
+OpDispatchEntry(DoCodeSubL, SubL)
+OpDispatchEntry(DoCodeLea, Lea)
+OpDispatchEntry(DoCodePEA, PEA)
+OpDispatchEntry(DoCodeA, A)
+OpDispatchEntry(DoCodeBsrB, BsrB)
+OpDispatchEntry(DoCodeBsrW, BsrW)
+OpDispatchEntry(DoCodeJsr, Jsr)
+OpDispatchEntry(DoCodeLinkA6, LinkA6)
+OpDispatchEntry(DoCodeMOVEMRmML, MOVEMRmML)
+OpDispatchEntry(DoCodeMOVEMApRL, MOVEMApRL)
+OpDispatchEntry(DoCodeUnlkA6, UnlkA6)
+OpDispatchEntry(DoCodeRts, Rts)
+OpDispatchEntry(DoCodeJmp, Jmp)
+OpDispatchEntry(DoCodeClr, Clr)
+OpDispatchEntry(DoCodeAddA, AddA)
+OpDispatchEntry(DoCodeAddA, AddQA)
+OpDispatchEntry(DoCodeSubA, SubA)
+OpDispatchEntry(DoCodeSubA, SubQA)
+OpDispatchEntry(DoCodeCmpA, CmpA)
+OpDispatchEntry(DoCodeAddXB, AddXB)
+OpDispatchEntry(DoCodeAddXW, AddXW)
+OpDispatchEntry(DoCodeAddXL, AddXL)
+OpDispatchEntry(DoCodeSubXB, SubXB)
+OpDispatchEntry(DoCodeSubXW, SubXW)
+OpDispatchEntry(DoCodeSubXL, SubXL)
+OpDispatchEntry(DoCodeAslB, AslB)
+OpDispatchEntry(DoCodeAslW, AslW)
+OpDispatchEntry(DoCodeAslL, AslL)
+OpDispatchEntry(DoCodeAsrB, AsrB)
+OpDispatchEntry(DoCodeAsrW, AsrW)
+OpDispatchEntry(DoCodeAsrL, AsrL)
+OpDispatchEntry(DoCodeLslB, LslB)
+OpDispatchEntry(DoCodeLslW, LslW)
+OpDispatchEntry(DoCodeLslL, LslL)
+OpDispatchEntry(DoCodeLsrB, LsrB)
+OpDispatchEntry(DoCodeLsrW, LsrW)
+OpDispatchEntry(DoCodeLsrL, LsrL)
+OpDispatchEntry(DoCodeRxlB, RxlB)
+OpDispatchEntry(DoCodeRxlW, RxlW)
+OpDispatchEntry(DoCodeRxlL, RxlL)
+OpDispatchEntry(DoCodeRxrB, RxrB)
+OpDispatchEntry(DoCodeRxrW, RxrW)
+OpDispatchEntry(DoCodeRxrL, RxrL)
+OpDispatchEntry(DoCodeRolB, RolB)
+OpDispatchEntry(DoCodeRolW, RolW)
+OpDispatchEntry(DoCodeRolL, RolL)
+OpDispatchEntry(DoCodeRorB, RorB)
+OpDispatchEntry(DoCodeRorW, RorW)
+OpDispatchEntry(DoCodeRorL, RorL)
+OpDispatchEntry(DoCodeBTstB, BTstB)
+OpDispatchEntry(DoCodeBChgB, BChgB)
+OpDispatchEntry(DoCodeBClrB, BClrB)
+OpDispatchEntry(DoCodeBSetB, BSetB)
+OpDispatchEntry(DoCodeBTstL, BTstL)
+OpDispatchEntry(DoCodeBChgL, BChgL)
+OpDispatchEntry(DoCodeBClrL, BClrL)
+OpDispatchEntry(DoCodeBSetL, BSetL)
+OpDispatchEntry(DoCodeAnd, AndI)
+OpDispatchEntry(DoCodeAnd, AndEaD)
+OpDispatchEntry(DoCodeAnd, AndDEa)
+OpDispatchEntry(DoCodeOr, OrI)
+OpDispatchEntry(DoCodeOr, OrDEa)
+OpDispatchEntry(DoCodeOr, OrEaD)
+OpDispatchEntry(DoCodeEor, Eor)
+OpDispatchEntry(DoCodeEor, EorI)
+OpDispatchEntry(DoCodeNot, Not)
+OpDispatchEntry(DoCodeScc, Scc)
+OpDispatchEntry(DoCodeNegXB, NegXB)
+OpDispatchEntry(DoCodeNegXW, NegXW)
+OpDispatchEntry(DoCodeNegXL, NegXL)
+OpDispatchEntry(DoCodeNegB, NegB)
+OpDispatchEntry(DoCodeNegW, NegW)
+OpDispatchEntry(DoCodeNegL, NegL)
+OpDispatchEntry(DoCodeEXTW, EXTW)
+OpDispatchEntry(DoCodeEXTL, EXTL)
+OpDispatchEntry(DoCodeMulU, MulU)
+OpDispatchEntry(DoCodeMulS, MulS)
+OpDispatchEntry(DoCodeDivU, DivU)
+OpDispatchEntry(DoCodeDivS, DivS)
+OpDispatchEntry(DoCodeExg, Exg)
+OpDispatchEntry(DoCodeMoveEaCR, MoveEaCCR)
+OpDispatchEntry(DoCodeMoveSREa, MoveSREa)
+OpDispatchEntry(DoCodeMoveEaSR, MoveEaSR)
+OpDispatchEntry(DoCodeOrISR, OrISR)
+OpDispatchEntry(DoCodeAndISR, AndISR)
+OpDispatchEntry(DoCodeEorISR, EorISR)
+OpDispatchEntry(DoCodeOrICCR, OrICCR)
+OpDispatchEntry(DoCodeAndICCR, AndICCR)
+OpDispatchEntry(DoCodeEorICCR, EorICCR)
+OpDispatchEntry(DoCodeMOVEMApRW, MOVEMApRW)
+OpDispatchEntry(DoCodeMOVEMRmMW, MOVEMRmMW)
+OpDispatchEntry(DoCodeMOVEMrmW, MOVEMrmW)
+OpDispatchEntry(DoCodeMOVEMrmL, MOVEMrmL)
+OpDispatchEntry(DoCodeMOVEMmrW, MOVEMmrW)
+OpDispatchEntry(DoCodeMOVEMmrL, MOVEMmrL)
+OpDispatchEntry(DoCodeAbcd, Abcd)
+OpDispatchEntry(DoCodeSbcd, Sbcd)
+OpDispatchEntry(DoCodeNbcd, Nbcd)
+OpDispatchEntry(DoCodeRte, Rte)
+OpDispatchEntry(DoCodeNop, Nop)
+OpDispatchEntry(DoCodeMoveP0, MoveP0)
+OpDispatchEntry(DoCodeMoveP1, MoveP1)
+OpDispatchEntry(DoCodeMoveP2, MoveP2)
+OpDispatchEntry(DoCodeMoveP3, MoveP3)
+OpDispatchEntry(op_illg, Illegal)
+OpDispatchEntry(DoCodeChk, ChkW)
+OpDispatchEntry(DoCodeTrap, Trap)
+OpDispatchEntry(DoCodeTrapV, TrapV)
+OpDispatchEntry(DoCodeRtr, Rtr)
+OpDispatchEntry(DoCodeLink, Link)
+OpDispatchEntry(DoCodeUnlk, Unlk)
+OpDispatchEntry(DoCodeMoveRUSP, MoveRUSP)
+OpDispatchEntry(DoCodeMoveUSPR, MoveUSPR)
+OpDispatchEntry(DoCodeTas, Tas)
+OpDispatchEntry(DoCodeFdefault, Fdflt)
+OpDispatchEntry(DoCodeStop, Stop)
+OpDispatchEntry(DoCodeReset, Reset)
+
+#if Use68020
+OpDispatchEntry(DoCodeCallMorRtm, CallMorRtm)
+OpDispatchEntry(DoCodeBraL, BraL)
+OpDispatchEntry(DoCodeBccL, BccL)
+OpDispatchEntry(DoCodeBsrL, BsrL)
+OpDispatchEntry(DoCodeEXTBL, EXTBL)
+OpDispatchEntry(DoCodeTRAPcc, TRAPcc)
+OpDispatchEntry(DoCodeChk, ChkL)
+OpDispatchEntry(DoCodeBkpt, Bkpt)
+OpDispatchEntry(DoCodeDivL, DivL)
+OpDispatchEntry(DoCodeMulL, MulL)
+OpDispatchEntry(DoCodeRtd, Rtd)
+OpDispatchEntry(DoCodeMoveCCREa, MoveCCREa)
+OpDispatchEntry(DoMoveFromControl, MoveCEa)
+OpDispatchEntry(DoMoveToControl, MoveEaC)
+OpDispatchEntry(DoCodeLinkL, LinkL)
+OpDispatchEntry(DoCodePack, Pack)
+OpDispatchEntry(DoCodeUnpk, Unpk)
+OpDispatchEntry(DoCHK2orCMP2, CHK2orCMP2)
+OpDispatchEntry(DoCAS2, CAS2)
+OpDispatchEntry(DoCAS, CAS)
+OpDispatchEntry(DoMOVES, MoveS)
+OpDispatchEntry(DoBitField, BitField)
+#endif
+#if EmMMU
+OpDispatchEntry(DoCodeMMU, MMU)
+#endif
+#if EmFPU
+OpDispatchEntry(DoCodeFPU_md60, FPUmd60)
+OpDispatchEntry(DoCodeFPU_DBcc, FPUDBcc)
+OpDispatchEntry(DoCodeFPU_Trapcc, FPUTrapcc)
+OpDispatchEntry(DoCodeFPU_Scc, FPUScc)
+OpDispatchEntry(DoCodeFPU_FBccW, FPUFBccW)
+OpDispatchEntry(DoCodeFPU_FBccL, FPUFBccL)
+OpDispatchEntry(DoCodeFPU_Save, FPUSave)
+OpDispatchEntry(DoCodeFPU_Restore, FPURestore)
+OpDispatchEntry(DoCodeFPU_dflt, FPUdflt)
+#endif
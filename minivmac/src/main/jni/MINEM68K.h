@@ -35,6 +35,12 @@ EXPORTPROC SetCyclesRemaining(si5r n);
 
 EXPORTPROC m68k_go_nCycles(ui5b n);
 
+EXPORTPROC m68k_StateIO(void);
+
+#if WantGuestProfile
+EXPORTPROC m68k_ProfileSample(void);
+#endif
+
 /*
 	general purpose access of address space
 	of emulated computer. (memory and
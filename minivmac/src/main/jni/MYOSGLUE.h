@@ -218,6 +218,57 @@ EXPORTVAR(ui3b, SpeedValue)
 EXPORTVAR(blnr, WantNotAutoSlow)
 #endif
 
+#if EnableIdleSleep
+EXPORTVAR(blnr, WantIdleSleep)
+
+/*
+	Counted up by the processor emulation each time the emulated
+	program calls one of the traps an event loop waits in.
+*/
+EXPORTVAR(ui5r, GuestPollCount)
+#endif
+
+#ifndef WantInstrCount
+#define WantInstrCount 0
+#endif
+
+#if WantInstrCount
+EXPORTVAR(ui5r, InstructionsExecuted)
+#endif
+
+#ifndef WantGuestProfile
+#define WantGuestProfile 1
+#endif
+
+#if WantGuestProfile
+/*
+	Sampling profile of the emulated program. While ProfileWant
+	is set the emulator records, once per sub tick, the PC and the
+	instruction kind about to execute, and counts every A-line
+	trap. Setting ProfileClear asks the emulator to start over.
+*/
+
+#define kProfileNumPCSlots 1024
+#define kProfileMaxKinds 256
+#define kProfileNumATraps 0x1000
+
+struct GuestProfile {
+	ui5r NumSamples;
+	ui5r PCOther; /* samples that found no free PC slot */
+	ui5r PCAddr[kProfileNumPCSlots];
+	ui5r PCCount[kProfileNumPCSlots];
+	ui5r NumKinds;
+	char *KindName[kProfileMaxKinds];
+	ui5r KindCount[kProfileMaxKinds];
+	ui5r ATrapCount[kProfileNumATraps];
+};
+typedef struct GuestProfile GuestProfile;
+
+EXPORTVAR(blnr, ProfileWant)
+EXPORTVAR(blnr, ProfileClear)
+EXPORTVAR(GuestProfile, TheProfile)
+#endif
+
 /* where emulated machine thinks mouse is */
 EXPORTVAR(ui4b, CurMouseV)
 EXPORTVAR(ui4b, CurMouseH)
@@ -129,8 +129,20 @@ LOCALPROC SubTickNotify(int SubTick)
 
 LOCALVAR ui4r SubTickCounter;
 
+#if WantGuestProfile
+#define ProfileSubTick() \
+{ \
+	if (ProfileWant) { \
+		m68k_ProfileSample(); \
+	} \
+}
+#else
+#define ProfileSubTick()
+#endif
+
 LOCALPROC SubTickTaskDo(void)
 {
+	ProfileSubTick();
 	SubTickNotify(SubTickCounter);
 	++SubTickCounter;
 	if (SubTickCounter < (kNumSubTicks - 1)) {
@@ -152,6 +164,7 @@ LOCALPROC SubTickTaskStart(void)
 
 LOCALPROC SubTickTaskEnd(void)
 {
+	ProfileSubTick();
 	SubTickNotify(kNumSubTicks - 1);
 }
 
@@ -252,6 +265,112 @@ LOCALFUNC blnr InitEmulation(void)
 	return falseblnr;
 }
 
+/*
+	Save states. Called between ticks, when none of the emulated
+	hardware is in the middle of anything.
+*/
+
+LOCALPROC EmulatedHardwareStateIO(void)
+{
+	Memory_StateIO(); /* first, it sets up the memory banks */
+	m68k_StateIO();
+	IWM_StateIO();
+	SCC_StateIO();
+	SCSI_StateIO();
+	VIA1_StateIO();
+#if EmVIA2
+	VIA2_StateIO();
+#endif
+	Sony_StateIO();
+#if EmRTC
+	RTC_StateIO();
+#endif
+#if EmVidCard
+	Vid_StateIO();
+#endif
+#if EmClassicKbrd
+	Kybd_StateIO();
+#endif
+#if EmADB
+	ADB_StateIO();
+#endif
+#if EmASC
+	ASC_StateIO();
+#else
+#if MySoundEnabled && (CurEmMd != kEmMd_PB100)
+	MacSound_StateIO();
+#endif
+#endif
+}
+
+GLOBALFUNC ui5r EmulationStateSize(void)
+{
+	State_Begin(nullpr, falseblnr);
+	EmulatedHardwareStateIO();
+	return State_End();
+}
+
+GLOBALPROC EmulationStateSave(ui3p p)
+{
+	State_Begin(p, falseblnr);
+	EmulatedHardwareStateIO();
+	(void) State_End();
+}
+
+GLOBALPROC EmulationStateLoad(ui3p p)
+{
+	State_Begin(p, trueblnr);
+	EmulatedHardwareStateIO();
+	(void) State_End();
+}
+
+/* RAM is saved by pages, see RAMDirty */
+
+GLOBALFUNC ui5r EmulationRAMSize(void)
+{
+	return kRAM_Size;
+}
+
+GLOBALFUNC ui5r EmulationRAMPageSize(void)
+{
+	return kRAMDirtyPageSz;
+}
+
+/*
+	Puts the numbers of the pages written since the last time, or
+	of all of them, followed by those pages, and returns how many.
+*/
+GLOBALFUNC ui5r EmulationRAMSave(ui3p p, blnr All)
+{
+	ui5b i;
+	ui5r n = 0;
+
+	for (i = 0; i < kRAMDirtyNumPages; ++i) {
+		if (All || (0 != (RAMDirty[i] & kRAMDirtySave))) {
+			MyMoveBytes((anyp)&i, (anyp)p, sizeof(ui5b));
+			p += sizeof(ui5b);
+			++n;
+		}
+	}
+	for (i = 0; i < kRAMDirtyNumPages; ++i) {
+		if (All || (0 != (RAMDirty[i] & kRAMDirtySave))) {
+			MyMoveBytes((anyp)(RAM + (i << ln2RAMDirtyPageSz)),
+				(anyp)p, kRAMDirtyPageSz);
+			p += kRAMDirtyPageSz;
+		}
+	}
+	RAMDirty_Clear();
+
+	return n;
+}
+
+GLOBALPROC EmulationRAMLoad(ui3p p)
+{
+	MyMoveBytes((anyp)p, (anyp)RAM, kRAM_Size);
+	RAMDirty_SetAll(); /* all code may have changed */
+	RAMDirty_Clear();
+}
+
 LOCALPROC ICT_DoTask(int taskid)
 {
 	switch (taskid) {
@@ -381,6 +500,64 @@ LOCALPROC m68k_go_nCycles_1(ui5b n)
 	} while (n != 0);
 }
 
+#if EnableIdleSleep
+LOCALPROC m68k_skip_nCycles_1(ui5b n)
+{
+	/*
+		Like m68k_go_nCycles_1, but without running
+		the processor. Scheduled tasks still happen
+		at the right time, so the emulated machine
+		sees time pass as usual.
+	*/
+	ui5b n2;
+	ui5b StopiCount = NextiCount + n;
+	do {
+		ICT_DoCurrentTasks();
+		n2 = ICT_DoGetNext(n);
+		NextiCount += n2;
+		n = StopiCount - NextiCount;
+	} while (n != 0);
+}
+#endif
+
+#if EnableIdleSleep
+#define kIdleSliceCycles (CyclesScaledPerTick / 4)
+#endif
+
+#if EnableIdleSleep
+LOCALFUNC blnr GuestIsIdle(void)
+{
+	/*
+		Same test as used for AutoSlow: no input,
+		disk activity, or screen changes for
+		a while means the emulated machine is
+		most likely just waiting for something
+		to happen.
+	*/
+	return WantIdleSleep
+		&& (QuietSubTicks >= 16384)
+		&& (QuietTime >= 34);
+}
+#endif
+
+#if EnableIdleSleep
+/*
+	One call of _SystemTask from a long computation shouldn't
+	count as waiting, so the idle slice has to poll at least
+	kIdleMinPolls times, in kIdleMinTicks ticks in a row.
+*/
+#define kIdleMinPolls 2
+#define kIdleMinTicks 2
+#endif
+
+#if EnableIdleSleep
+/* ticks in a row whose idle slice polled enough */
+LOCALVAR ui3b GuestPollTicks = 0;
+
+/* GuestPollTicks reached kIdleMinTicks in the last tick */
+LOCALVAR blnr GuestWaiting = falseblnr;
+#endif
+
 LOCALVAR ui5b ExtraSubTicksToDo = 0;
 
 LOCALPROC DoEmulateOneTick(void)
@@ -408,7 +585,41 @@ LOCALPROC DoEmulateOneTick(void)
 
 	SixtiethSecondNotify();
 
-	m68k_go_nCycles_1(CyclesScaledPerTick);
+#if EnableIdleSleep
+	if (GuestIsIdle()) {
+		/*
+			Give the emulated machine a short slice
+			to notice any interrupt. Only if it
+			has kept waiting for events is the rest
+			of the tick skipped, leaving the host
+			thread to sleep until the next one.
+			Anything else, such as a long
+			computation, keeps the whole tick.
+		*/
+		GuestPollCount = 0;
+		m68k_go_nCycles_1(kIdleSliceCycles);
+		if (GuestPollCount < kIdleMinPolls) {
+			GuestPollTicks = 0;
+		} else if (GuestPollTicks < kIdleMinTicks) {
+			++GuestPollTicks;
+		}
+		GuestWaiting = (GuestPollTicks >= kIdleMinTicks);
+		if (GuestWaiting) {
+			m68k_skip_nCycles_1(
+				CyclesScaledPerTick - kIdleSliceCycles);
+		} else {
+			m68k_go_nCycles_1(
+				CyclesScaledPerTick - kIdleSliceCycles);
+		}
+	} else
+#endif
+	{
+#if EnableIdleSleep
+		GuestPollTicks = 0;
+		GuestWaiting = falseblnr;
+#endif
+		m68k_go_nCycles_1(CyclesScaledPerTick);
+	}
 
 	SixtiethEndNotify();
 
@@ -437,6 +648,11 @@ LOCALFUNC blnr MoreSubTicksToDo(void)
 		{
 			ExtraSubTicksToDo = 0;
 		} else
+#endif
+#if EnableIdleSleep
+		if (GuestIsIdle() && GuestWaiting) {
+			ExtraSubTicksToDo = 0;
+		} else
 #endif
 		{
 			v = trueblnr;
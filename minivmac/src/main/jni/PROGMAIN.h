@@ -23,3 +23,12 @@
 
 EXPORTPROC EmulationReserveAlloc(void);
 EXPORTPROC ProgramMain(void);
+
+EXPORTFUNC ui5r EmulationStateSize(void);
+EXPORTPROC EmulationStateSave(ui3p p);
+EXPORTPROC EmulationStateLoad(ui3p p);
+
+EXPORTFUNC ui5r EmulationRAMSize(void);
+EXPORTFUNC ui5r EmulationRAMPageSize(void);
+EXPORTFUNC ui5r EmulationRAMSave(ui3p p, blnr All);
+EXPORTPROC EmulationRAMLoad(ui3p p);
@@ -331,6 +331,18 @@ GLOBALPROC RTC_Interrupt(void)
 	}
 }
 
+GLOBALPROC RTC_StateIO(void)
+{
+	State_Var(RTC);
+	State_Var(LastRealDate);
+		/*
+			not adjusted on loading, so the clock catches up
+			with the time that went by since the state was
+			saved at the next RTC_Interrupt, as if the machine
+			had been switched off meanwhile.
+		*/
+}
+
 LOCALFUNC ui3b RTC_Access_PRAM_Reg(ui3b Data, blnr WriteReg, ui3b t)
 {
 	if (WriteReg) {
@@ -22,6 +22,7 @@
 
 EXPORTFUNC blnr RTC_Init(void);
 EXPORTPROC RTC_Interrupt(void);
+EXPORTPROC RTC_StateIO(void);
 
 EXPORTPROC RTCunEnabled_ChangeNtfy(void);
 EXPORTPROC RTCclock_ChangeNtfy(void);
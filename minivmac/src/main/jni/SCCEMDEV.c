@@ -589,6 +589,11 @@ GLOBALPROC SCC_Reset(void)
 	SCC_ResetChannel(0);
 }
 
+GLOBALPROC SCC_StateIO(void)
+{
+	State_Var(SCC);
+}
+
 
 #if EmLocalTalk
 
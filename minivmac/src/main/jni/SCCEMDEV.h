@@ -21,6 +21,7 @@
 #endif
 
 EXPORTPROC SCC_Reset(void);
+EXPORTPROC SCC_StateIO(void);
 
 EXPORTFUNC ui5b SCC_Access(ui5b Data, blnr WriteMem, CPTR addr);
 
@@ -66,6 +66,11 @@ GLOBALPROC SCSI_Reset(void)
 	}
 }
 
+GLOBALPROC SCSI_StateIO(void)
+{
+	State_Var(SCSI);
+}
+
 LOCALPROC SCSI_BusReset(void)
 {
 	SCSI[scsiRd + sCDR] = 0;
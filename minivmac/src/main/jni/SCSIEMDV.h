@@ -21,5 +21,6 @@
 #endif
 
 EXPORTPROC SCSI_Reset(void);
+EXPORTPROC SCSI_StateIO(void);
 
 EXPORTFUNC ui5b SCSI_Access(ui5b Data, blnr WriteMem, CPTR addr);
@@ -1642,3 +1642,22 @@ GLOBALPROC ExtnSony_Access(CPTR p)
 
 	put_vm_word(p + ExtnDat_result, result);
 }
+
+GLOBALPROC Sony_StateIO(void)
+{
+	/*
+		Which disks are inserted is up to the OS glue, which
+		has to put the same images back in the same drives
+		before loading a state.
+	*/
+	State_Var(vSonyMountedMask);
+	State_Var(ImageDataOffset);
+	State_Var(ImageDataSize);
+#if Sony_SupportTags
+	State_Var(ImageTagOffset);
+	State_Var(TheTagBuffer);
+#endif
+	State_Var(DelayUntilNextInsert);
+	State_Var(MountCallBack);
+	State_Var(QuitOnEject);
+}
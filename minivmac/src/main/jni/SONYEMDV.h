@@ -27,5 +27,6 @@ EXPORTPROC Sony_SetQuitOnEject(void);
 
 EXPORTPROC Sony_EjectAllDisks(void);
 EXPORTPROC Sony_Reset(void);
+EXPORTPROC Sony_StateIO(void);
 
 EXPORTPROC Sony_Update(void);
@@ -1222,3 +1222,16 @@ GLOBALPROC VIA1_iCB2_PulseNtfy(void)
 	VIA1_SetInterruptFlag(kIntCB2);
 }
 #endif
+
+GLOBALPROC VIA1_StateIO(void)
+{
+	State_Var(VIA1_D);
+	State_Var(VIA1_T1_Active);
+	State_Var(VIA1_T2_Active);
+	State_Var(VIA1_T1IntReady);
+	State_Var(VIA1_T1Running);
+	State_Var(VIA1_T1LastTime);
+	State_Var(VIA1_T2Running);
+	State_Var(VIA1_T2C_ShortTime);
+	State_Var(VIA1_T2LastTime);
+}
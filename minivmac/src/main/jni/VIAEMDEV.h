@@ -22,6 +22,7 @@
 
 EXPORTPROC VIA1_Zap(void);
 EXPORTPROC VIA1_Reset(void);
+EXPORTPROC VIA1_StateIO(void);
 
 EXPORTFUNC ui5b VIA1_Access(ui5b Data, blnr WriteMem, CPTR addr);
 